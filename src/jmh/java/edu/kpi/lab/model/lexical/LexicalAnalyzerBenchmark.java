@@ -0,0 +1,69 @@
+package edu.kpi.lab.model.lexical;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link LexicalAnalyzer#processMathSentence(String)} against the table-driven {@link LexicalAnalyzer#tokenize}, on
+ * compact input and on the same expression written with spaces, which used to need stripping before lexing.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LexicalAnalyzerBenchmark {
+  @Param({"16", "1024", "65536"})
+  private int terms;
+
+  private final LexicalAnalyzer strict = new LexicalAnalyzer();
+
+  private final LexicalAnalyzer skippingWhitespace = new LexicalAnalyzer(true);
+
+  private String compact;
+
+  private String spaced;
+
+  @Setup
+  public void setUp() {
+    StringBuilder sb = new StringBuilder("alpha0");
+    for (int i = 1; i < terms; i++) {
+      sb.append(i % 3 == 0 ? " * " : " + ").append("sin(x").append(i).append(" - 2.75) / (beta").append(i % 7)
+        .append(" + 10)");
+    }
+    spaced = sb.toString();
+    compact = spaced.replace(" ", "");
+  }
+
+  @Benchmark
+  public List<Token> processMathSentence() {
+    return strict.processMathSentence(compact);
+  }
+
+  @Benchmark
+  public TokenBuffer tokenize() {
+    return strict.tokenize(compact);
+  }
+
+  @Benchmark
+  public List<Token> stripThenProcessMathSentence() {
+    return strict.processMathSentence(spaced.replaceAll("\\s+", ""));
+  }
+
+  @Benchmark
+  public TokenBuffer tokenizeSkippingWhitespace() {
+    return skippingWhitespace.tokenize(spaced);
+  }
+}
@@ -0,0 +1,19 @@
+package edu.kpi.lab.model.budget;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Outcome of a budgeted call: the value computed so far and, if the budget ran out, why it stopped.
+ */
+@Getter
+@AllArgsConstructor
+public class BudgetedResult<T> {
+  private final T value;
+
+  private final TruncationReason truncationReason;
+
+  public boolean isTruncated() {
+    return truncationReason != null;
+  }
+}
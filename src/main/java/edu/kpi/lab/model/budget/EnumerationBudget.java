@@ -0,0 +1,95 @@
+package edu.kpi.lab.model.budget;
+
+import java.time.Duration;
+import lombok.Getter;
+
+/**
+ * Limits for a single enumeration call: how many results it may produce, how many nodes it may allocate, how long it
+ * may run and whether it was cancelled. Generators consult the budget between results and stop cleanly once it is
+ * exhausted; the first limit that was hit is kept as the truncation reason.
+ *
+ * <p>A budget belongs to one call. Only {@link #cancel()} may be invoked from other threads.
+ */
+public class EnumerationBudget {
+  private final long maxResults;
+
+  private final long maxNodes;
+
+  private final long deadlineNanos;
+
+  private final boolean timed;
+
+  private volatile boolean cancelled;
+
+  @Getter
+  private long results;
+
+  @Getter
+  private long nodes;
+
+  @Getter
+  private TruncationReason truncationReason;
+
+  public EnumerationBudget(long maxResults, long maxNodes, Duration timeout) {
+    this.maxResults = maxResults;
+    this.maxNodes = maxNodes;
+    this.timed = timeout != null;
+    this.deadlineNanos = timed ? System.nanoTime() + timeout.toNanos() : 0;
+  }
+
+  public static EnumerationBudget unlimited() {
+    return new EnumerationBudget(Long.MAX_VALUE, Long.MAX_VALUE, null);
+  }
+
+  public static EnumerationBudget ofResults(long maxResults) {
+    return new EnumerationBudget(maxResults, Long.MAX_VALUE, null);
+  }
+
+  public static EnumerationBudget ofTimeout(Duration timeout) {
+    return new EnumerationBudget(Long.MAX_VALUE, Long.MAX_VALUE, timeout);
+  }
+
+  public void cancel() {
+    cancelled = true;
+  }
+
+  /**
+   * Checks the cancellation flag, the deadline and the node limit, remembering the first reason to stop.
+   */
+  public boolean isExhausted() {
+    if (truncationReason != null) {
+      return true;
+    }
+    if (cancelled) {
+      truncationReason = TruncationReason.CANCELLED;
+    } else if (timed && System.nanoTime() - deadlineNanos >= 0) {
+      truncationReason = TruncationReason.DEADLINE;
+    } else if (nodes > maxNodes) {
+      truncationReason = TruncationReason.MAX_NODES;
+    }
+    return truncationReason != null;
+  }
+
+  /**
+   * Accounts for one more result, returning {@code false} if it must not be produced.
+   */
+  public boolean tryConsumeResult() {
+    if (isExhausted()) {
+      return false;
+    }
+    if (results >= maxResults) {
+      truncationReason = TruncationReason.MAX_RESULTS;
+      return false;
+    }
+    results++;
+    return true;
+  }
+
+  public void allocateNode() {
+    nodes++;
+  }
+
+  public <T> BudgetedResult<T> result(T value) {
+    return new BudgetedResult<>(value, truncationReason);
+  }
+}
@@ -0,0 +1,5 @@
+package edu.kpi.lab.model.budget;
+
+public enum TruncationReason {
+  MAX_RESULTS, MAX_NODES, DEADLINE, CANCELLED
+}
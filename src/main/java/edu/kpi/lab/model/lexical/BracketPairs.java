@@ -0,0 +1,125 @@
+package edu.kpi.lab.model.lexical;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.IntStream;
+
+/**
+ * Partners of the bracket tokens of a {@link TokenBuffer}, matched the way a stack would match them: every close
+ * bracket closes the latest bracket still open, and a close bracket with nothing open stays unmatched.
+ */
+public final class BracketPairs {
+  private static final int UNMATCHED = -1;
+
+  private final int[] partners;
+
+  private final int unclosed;
+
+  private BracketPairs(int[] partners, int unclosed) {
+    this.partners = partners;
+    this.unclosed = unclosed;
+  }
+
+  public static BracketPairs match(TokenBuffer tokens) {
+    int[] partners = new int[tokens.size()];
+    Arrays.fill(partners, UNMATCHED);
+    int[] opened = new int[16];
+    int depth = 0;
+    for (int i = 0; i < tokens.size(); i++) {
+      if (isOpen(tokens.getTokenType(i))) {
+        if (depth == opened.length) {
+          opened = Arrays.copyOf(opened, depth * 2);
+        }
+        opened[depth++] = i;
+      } else if (isClose(tokens.getTokenType(i)) && depth > 0) {
+        int open = opened[--depth];
+        partners[open] = i;
+        partners[i] = open;
+      }
+    }
+    return new BracketPairs(partners, depth);
+  }
+
+  /**
+   * The same pairs as {@link #match(TokenBuffer)}, computed on {@code pool} without a stack. A prefix sum over the
+   * brackets gives the depth each one would reach, and a prefix minimum shows which close brackets would find the
+   * stack empty. Sorting the remaining brackets by depth and position leaves every open bracket directly before its
+   * partner.
+   */
+  public static BracketPairs match(TokenBuffer tokens, ForkJoinPool pool) {
+    return pool.invoke(ForkJoinTask.adapt(() -> matchInParallel(tokens)));
+  }
+
+  private static BracketPairs matchInParallel(TokenBuffer tokens) {
+    int[] partners = new int[tokens.size()];
+    Arrays.fill(partners, UNMATCHED);
+    int[] brackets = IntStream.range(0, tokens.size()).parallel()
+      .filter(i -> isOpen(tokens.getTokenType(i)) || isClose(tokens.getTokenType(i)))
+      .toArray();
+    if (brackets.length == 0) {
+      return new BracketPairs(partners, 0);
+    }
+
+    int[] sums = new int[brackets.length];
+    Arrays.parallelSetAll(sums, k -> isOpen(tokens.getTokenType(brackets[k])) ? 1 : -1);
+    Arrays.parallelPrefix(sums, Integer::sum);
+    int[] minimums = sums.clone();
+    Arrays.parallelPrefix(minimums, Math::min);
+
+    // depth after each bracket, or -1 for a close bracket that finds nothing open
+    int[] depths = new int[brackets.length];
+    Arrays.parallelSetAll(depths, k -> {
+      int floor = Math.min(0, minimums[k]);
+      if (sums[k] < (k == 0 ? 0 : Math.min(0, minimums[k - 1]))) {
+        return -1;
+      }
+      return isOpen(tokens.getTokenType(brackets[k])) ? sums[k] - floor : sums[k] - floor + 1;
+    });
+
+    long[] keys = IntStream.range(0, brackets.length).parallel()
+      .filter(k -> depths[k] >= 0)
+      .mapToLong(k -> (long) depths[k] << Integer.SIZE | k)
+      .toArray();
+    Arrays.parallelSort(keys);
+    IntStream.range(0, keys.length - 1).parallel().forEach(j -> {
+      int open = brackets[(int) keys[j]];
+      int close = brackets[(int) keys[j + 1]];
+      if (keys[j] >>> Integer.SIZE == keys[j + 1] >>> Integer.SIZE && isOpen(tokens.getTokenType(open)) &&
+          isClose(tokens.getTokenType(close))) {
+        partners[open] = close;
+        partners[close] = open;
+      }
+    });
+
+    int last = brackets.length - 1;
+    return new BracketPairs(partners, sums[last] - Math.min(0, minimums[last]));
+  }
+
+  /**
+   * Index of the bracket paired with the bracket at {@code index}, or {@code -1} if it has none or is not a bracket.
+   */
+  public int getPartner(int index) {
+    return partners[Objects.checkIndex(index, partners.length)];
+  }
+
+  public int[] getPartners() {
+    return partners.clone();
+  }
+
+  /**
+   * Number of open brackets left without a partner.
+   */
+  public int getUnclosed() {
+    return unclosed;
+  }
+
+  static boolean isOpen(TokenType type) {
+    return type == TokenType.OPEN_BRACKET || type == TokenType.FUNCTION_OPEN_BRACKET;
+  }
+
+  static boolean isClose(TokenType type) {
+    return type == TokenType.CLOSE_BRACKET || type == TokenType.FUNCTION_CLOSE_BRACKET;
+  }
+}
@@ -1,112 +1,277 @@
 package edu.kpi.lab.model.lexical;
 
-import java.util.EmptyStackException;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Stack;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.IntStream;
 
+/**
+ * Splits expressions into tokens. Characters are classified through a lookup table for ASCII, and runs of digits and
+ * letters are consumed in one tight loop rather than one state transition per character.
+ *
+ * <p>By default whitespace is an {@link TokenType#ERROR} token like any other unknown character. An analyzer created
+ * with {@code skipWhitespace} treats it as a separator instead: it ends the current token and produces nothing, and
+ * a name followed by whitespace and {@code (} is still a function. Positions always refer to the original text.
+ */
 public class LexicalAnalyzer {
+  static final byte OTHER = 0;
+  static final byte LETTER = 1;
+  static final byte DIGIT = 2;
+  static final byte DOT = 3;
+  static final byte OPEN = 4;
+  static final byte CLOSE = 5;
+  static final byte ADD = 6;
+  static final byte MINUS = 7;
+  static final byte MULTIPLY = 8;
+  static final byte DIVIDE = 9;
+  static final byte SPACE = 10;
+
+  private static final int DIGITS = 1 << DIGIT;
+
+  private static final int NAME_CHARACTERS = 1 << LETTER | 1 << DIGIT;
+
+  private static final byte[] ASCII_CLASSES = new byte[128];
+
+  private static final int MIN_CHUNK_LENGTH = 1 << 16;
+
+  static {
+    for (char c = 0; c < ASCII_CLASSES.length; c++) {
+      ASCII_CLASSES[c] = Character.isLetter(c) ? LETTER : Character.isDigit(c) ? DIGIT :
+                         Character.isWhitespace(c) ? SPACE : OTHER;
+    }
+    ASCII_CLASSES['.'] = DOT;
+    ASCII_CLASSES['('] = OPEN;
+    ASCII_CLASSES[')'] = CLOSE;
+    ASCII_CLASSES['+'] = ADD;
+    ASCII_CLASSES['-'] = MINUS;
+    ASCII_CLASSES['*'] = MULTIPLY;
+    ASCII_CLASSES['/'] = DIVIDE;
+  }
+
+  private final boolean skipWhitespace;
+
+  public LexicalAnalyzer() {
+    this(false);
+  }
+
+  public LexicalAnalyzer(boolean skipWhitespace) {
+    this.skipWhitespace = skipWhitespace;
+  }
 
   public List<Token> processMathSentence(String sentence) {
-    if (sentence.isBlank()) {
-      throw new IllegalArgumentException("Sentence is empty");
+    return tokenize(sentence).toTokens();
+  }
+
+  /**
+   * Splits {@code sentence} into the same tokens as {@link #processMathSentence(String)}, written straight into a
+   * {@link TokenBuffer} over the sentence itself.
+   */
+  public TokenBuffer tokenize(CharSequence sentence) {
+    checkNotBlank(sentence);
+    TokenBuffer query = new TokenBuffer(sentence, Math.max(16, sentence.length() / 2));
+    scan(sentence, 0, sentence.length(), query, true);
+    return query;
+  }
+
+  /**
+   * The same tokens as {@link #tokenize(CharSequence)}, lexed on {@code pool}. The sentence is cut into chunks at
+   * operators and close brackets, where every token ends whatever came before, so chunks are lexed independently.
+   * Close brackets are typed afterwards from the brackets they close, as found by {@link BracketPairs}.
+   */
+  public TokenBuffer tokenize(CharSequence sentence, ForkJoinPool pool) {
+    checkNotBlank(sentence);
+    int length = sentence.length();
+    int chunkLength = Math.max(MIN_CHUNK_LENGTH, length / (pool.getParallelism() * 4));
+    if (length < 2 * chunkLength) {
+      return tokenize(sentence);
     }
 
-    char[] charArray = sentence.toCharArray();
-    Token currentToken = new Token(0);
-    List<Token> query = new LinkedList<>();
-    Stack<TokenType> openedBrackets = new Stack<>();
-
-    for (int i = 0; i < charArray.length; i++) {
-
-      if (charArray[i] == '(') {
-        if (currentToken.getTokenType() == TokenType.CONSTANT) {
-          currentToken.setTokenType(TokenType.FUNCTION);
-          openedBrackets.push(TokenType.FUNCTION_OPEN_BRACKET);
-          currentToken = addAndFinishAnother(currentToken, i, query, TokenType.FUNCTION_OPEN_BRACKET, charArray);
-        } else {
-          openedBrackets.push(TokenType.OPEN_BRACKET);
-          currentToken = addAndFinishAnother(currentToken, i, query, TokenType.OPEN_BRACKET, charArray);
+    int[] bounds = chunkBounds(sentence, chunkLength);
+    TokenBuffer[] chunks = new TokenBuffer[bounds.length - 1];
+    pool.invoke(ForkJoinTask.adapt(() -> IntStream.range(0, chunks.length).parallel().forEach(k -> {
+      chunks[k] = new TokenBuffer(sentence, Math.max(16, (bounds[k + 1] - bounds[k]) / 2));
+      scan(sentence, bounds[k], bounds[k + 1], chunks[k], false);
+    })));
+    TokenBuffer query = TokenBuffer.concat(sentence, chunks);
+
+    BracketPairs pairs = BracketPairs.match(query, pool);
+    pool.invoke(ForkJoinTask.adapt(() -> IntStream.range(0, query.size()).parallel().forEach(i -> {
+      int partner = pairs.getPartner(i);
+      if (partner > i && query.getTokenType(i) == TokenType.FUNCTION_OPEN_BRACKET) {
+        query.setTokenType(partner, TokenType.FUNCTION_CLOSE_BRACKET);
+      }
+    })));
+    return query;
+  }
+
+  /**
+   * Lexes {@code sentence[from; to)} into {@code query}. Without {@code matchBrackets} every close bracket is a
+   * {@link TokenType#CLOSE_BRACKET}.
+   */
+  private void scan(CharSequence sentence, int from, int to, TokenBuffer query, boolean matchBrackets) {
+    boolean[] functionBrackets = new boolean[16];
+    int openedBrackets = 0;
+    TokenType current = null;
+    int start = from;
+    boolean nameBeforeSpace = false;
+
+    for (int i = from; i < to; i++) {
+      byte charClass = classOf(sentence.charAt(i));
+      TokenType single = null;
+
+      if (charClass == SPACE && skipWhitespace) {
+        if (current != null) {
+          query.add(current, start, i - 1);
+          nameBeforeSpace = current == TokenType.CONSTANT;
+          current = null;
         }
-      } else if (charArray[i] == ')') {
-        try {
-          TokenType lastOpenedBracket = openedBrackets.pop();
-          if (lastOpenedBracket == TokenType.FUNCTION_OPEN_BRACKET) {
-            currentToken = addAndFinishAnother(currentToken, i, query, TokenType.FUNCTION_CLOSE_BRACKET, charArray);
-          } else if (lastOpenedBracket == TokenType.OPEN_BRACKET) {
-            currentToken = addAndFinishAnother(currentToken, i, query, TokenType.CLOSE_BRACKET, charArray);
+        continue;
+      }
+
+      switch (charClass) {
+        case OPEN -> {
+          boolean function = false;
+          if (current == TokenType.CONSTANT) {
+            current = TokenType.FUNCTION;
+            function = true;
+          } else if (current == null && nameBeforeSpace) {
+            query.setTokenType(query.size() - 1, TokenType.FUNCTION);
+            function = true;
+          }
+          if (matchBrackets) {
+            if (openedBrackets == functionBrackets.length) {
+              functionBrackets = Arrays.copyOf(functionBrackets, openedBrackets * 2);
+            }
+            functionBrackets[openedBrackets++] = function;
+          }
+          single = function ? TokenType.FUNCTION_OPEN_BRACKET : TokenType.OPEN_BRACKET;
+        }
+        case CLOSE -> {
+          if (matchBrackets && openedBrackets > 0 && functionBrackets[--openedBrackets]) {
+            single = TokenType.FUNCTION_CLOSE_BRACKET;
           } else {
-            currentToken = addAndFinishAnother(currentToken, i, query, TokenType.CLOSE_BRACKET, charArray);
+            single = TokenType.CLOSE_BRACKET;
           }
-        } catch (EmptyStackException e) {
-          currentToken = addAndFinishAnother(currentToken, i, query, TokenType.CLOSE_BRACKET, charArray);
         }
-      } else if (charArray[i] == '+') {
-        currentToken = addAndFinishAnother(currentToken, i, query, TokenType.OPERATION_ADD, charArray);
-      } else if (charArray[i] == '-') {
-        currentToken = addAndFinishAnother(currentToken, i, query, TokenType.OPERATION_MINUS, charArray);
-      } else if (charArray[i] == '*') {
-        currentToken = addAndFinishAnother(currentToken, i, query, TokenType.OPERATION_MULTIPLY, charArray);
-      }else if (charArray[i] == '/') {
-        currentToken = addAndFinishAnother(currentToken, i, query, TokenType.OPERATION_DIVIDE, charArray);
-      } else if (charArray[i] == '.') {
-        if (currentToken.getTokenType() == TokenType.INTEGER) {
-          currentToken.setTokenType(TokenType.DECIMAL);
-          currentToken.addToValue(charArray[i]);
-        } else if (currentToken.getTokenType() == TokenType.DECIMAL ||
-                   currentToken.getTokenType() == TokenType.FUNCTION) {
-          currentToken.addToValue(charArray[i]);
-        } else {
-          currentToken = addAndFinishAnother(currentToken, i, query, TokenType.ERROR, charArray);
+        case ADD -> single = TokenType.OPERATION_ADD;
+        case MINUS -> single = TokenType.OPERATION_MINUS;
+        case MULTIPLY -> single = TokenType.OPERATION_MULTIPLY;
+        case DIVIDE -> single = TokenType.OPERATION_DIVIDE;
+        case DOT -> {
+          if (current == TokenType.INTEGER) {
+            current = TokenType.DECIMAL;
+          } else if (current != TokenType.DECIMAL && current != TokenType.FUNCTION) {
+            single = TokenType.ERROR;
+          }
         }
-      } else if (Character.isDigit(charArray[i])) {
-        if (currentToken.getTokenType() == null) {
-          currentToken.setTokenType(TokenType.INTEGER);
-          currentToken.addToValue(charArray[i]);
-        } else if (currentToken.getTokenType() == TokenType.INTEGER ||
-                   currentToken.getTokenType() == TokenType.DECIMAL ||
-                   currentToken.getTokenType() == TokenType.FUNCTION ||
-                   currentToken.getTokenType() == TokenType.CONSTANT) {
-          currentToken.addToValue(charArray[i]);
-        } else {
-          currentToken = addAndFinishAnother(currentToken, i, query, TokenType.ERROR, charArray);
+        case DIGIT -> {
+          if (current == null) {
+            current = TokenType.INTEGER;
+            start = i;
+          }
+          if (current == TokenType.INTEGER || current == TokenType.DECIMAL) {
+            i = skipRun(sentence, i + 1, to, DIGITS) - 1;
+          } else if (current == TokenType.CONSTANT) {
+            i = skipRun(sentence, i + 1, to, NAME_CHARACTERS) - 1;
+          } else if (current != TokenType.FUNCTION) {
+            single = TokenType.ERROR;
+          }
         }
-      } else if (Character.isLetter(charArray[i])) {
-        if (currentToken.getTokenType() == null) {
-          currentToken.setTokenType(TokenType.CONSTANT);
-          currentToken.addToValue(charArray[i]);
-        } else if (currentToken.getTokenType() == TokenType.CONSTANT ||
-                   currentToken.getTokenType() == TokenType.FUNCTION) {
-          currentToken.addToValue(charArray[i]);
-        } else {
-          currentToken = addAndFinishAnother(currentToken, i, query, TokenType.ERROR, charArray);
+        case LETTER -> {
+          if (current == null) {
+            current = TokenType.CONSTANT;
+            start = i;
+          }
+          if (current == TokenType.CONSTANT) {
+            i = skipRun(sentence, i + 1, to, NAME_CHARACTERS) - 1;
+          } else if (current != TokenType.FUNCTION) {
+            single = TokenType.ERROR;
+          }
         }
-      } else {
-        currentToken = addAndFinishAnother(currentToken, i, query, TokenType.ERROR, charArray);
+        default -> single = TokenType.ERROR;
+      }
+      nameBeforeSpace = false;
+
+      if (single != null) {
+        if (current != null) {
+          query.add(current, start, i - 1);
+          current = null;
+        }
+        query.add(single, i, i);
       }
     }
-    if (currentToken.getTokenType() != null) {
-      finishProcessing(currentToken, charArray.length - 1, query);
+    if (current != null) {
+      query.add(current, start, to - 1);
     }
+  }
 
-    return query;
+
+  /**
+   * Chunk boundaries about {@code chunkLength} apart, each moved forward to the next operator or close bracket.
+   */
+  private static int[] chunkBounds(CharSequence sentence, int chunkLength) {
+    int length = sentence.length();
+    IntStream.Builder bounds = IntStream.builder().add(0);
+    int next = chunkLength;
+    while (next < length) {
+      int split = next;
+      while (split < length && !isChunkBoundary(sentence.charAt(split))) {
+        split++;
+      }
+      if (split == length) {
+        break;
+      }
+      bounds.add(split);
+      next = split + chunkLength;
+    }
+    return bounds.add(length).build().toArray();
   }
 
-  private Token addAndFinishAnother(Token currentToken, int i, List<Token> query, TokenType tokenType,
-                                    char[] charArray) {
-    if (currentToken.getTokenType() != null) {
-      currentToken = finishProcessing(currentToken, i - 1, query);
+  private static boolean isChunkBoundary(char c) {
+    if (c >= ASCII_CLASSES.length) {
+      return false;
     }
-    currentToken.setTokenType(tokenType);
-    currentToken.addToValue(charArray[i]);
-    currentToken = finishProcessing(currentToken, i, query);
-    return currentToken;
+    byte charClass = ASCII_CLASSES[c];
+    return charClass == CLOSE || charClass == ADD || charClass == MINUS || charClass == MULTIPLY ||
+           charClass == DIVIDE;
   }
 
-  private Token finishProcessing(Token currentToken, int i, List<Token> query) {
-    currentToken.setEndPosition(i);
-    query.add(currentToken);
-    currentToken = new Token(i + 1);
-    return currentToken;
+  private byte classOf(char c) {
+    return classOf(c, skipWhitespace);
+  }
+
+  /**
+   * Class of {@code c}; whitespace is {@link #SPACE} only when it is skipped and {@link #OTHER} otherwise.
+   */
+  static byte classOf(char c, boolean skipWhitespace) {
+    byte charClass;
+    if (c < ASCII_CLASSES.length) {
+      charClass = ASCII_CLASSES[c];
+    } else {
+      charClass = Character.isLetter(c) ? LETTER : Character.isDigit(c) ? DIGIT :
+                  Character.isWhitespace(c) ? SPACE : OTHER;
+    }
+    return charClass == SPACE && !skipWhitespace ? OTHER : charClass;
+  }
+
+  /**
+   * Index of the first character in {@code [from; to)} whose class is not in {@code classes}, or {@code to}.
+   */
+  private int skipRun(CharSequence sentence, int from, int to, int classes) {
+    int i = from;
+    while (i < to && (classes & 1 << classOf(sentence.charAt(i))) != 0) {
+      i++;
+    }
+    return i;
+  }
+
+  private static void checkNotBlank(CharSequence sentence) {
+    for (int i = 0; i < sentence.length(); i++) {
+      if (!Character.isWhitespace(sentence.charAt(i))) {
+        return;
+      }
+    }
+    throw new IllegalArgumentException("Sentence is empty");
   }
 }
@@ -0,0 +1,247 @@
+package edu.kpi.lab.model.lexical;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Tokens of one expression stored column by column: start and end positions in {@code int} arrays, types in a
+ * {@code byte} array, and values as the {@code [start; end]} slices of the source text. Filling a buffer allocates
+ * only when an array grows, and every token is read in constant time without creating {@link Token} objects.
+ *
+ * <p>Types can be changed after lexing, the way {@link edu.kpi.lab.model.syntax.SyntaxValidator} marks misplaced
+ * tokens as {@link TokenType#ERROR}.
+ *
+ * <p>A buffer built from a token list with {@link #of(List)} cannot rely on the positions for its values, since
+ * hand-built tokens may overlap or carry values of another length. Its values are appended to the source one after
+ * another and located by their own offsets, while the positions are kept only to be reported.
+ */
+public final class TokenBuffer {
+  private static final TokenType[] TYPES = TokenType.values();
+
+  private final CharSequence source;
+
+  private int[] starts;
+
+  private int[] ends;
+
+  private byte[] types;
+
+  /**
+   * Source offsets of the values, {@code [valueStarts[i]; valueEnds[i])}, or {@code null} when every value is the
+   * source at the token's positions.
+   */
+  private int[] valueStarts;
+
+  private int[] valueEnds;
+
+  private int size;
+
+  public TokenBuffer(CharSequence source) {
+    this(source, 16);
+  }
+
+  public TokenBuffer(CharSequence source, int initialCapacity) {
+    this.source = source;
+    int capacity = Math.max(1, initialCapacity);
+    this.starts = new int[capacity];
+    this.ends = new int[capacity];
+    this.types = new byte[capacity];
+  }
+
+  /**
+   * Buffer over the values of {@code tokens}, with their positions and types. Values are copied as they are, so
+   * tokens may overlap or be out of order; a missing value reads as empty and a missing position as {@code -1}.
+   */
+  public static TokenBuffer of(List<Token> tokens) {
+    StringBuilder source = new StringBuilder();
+    TokenBuffer buffer = new TokenBuffer(source, tokens.size());
+    buffer.valueStarts = new int[buffer.types.length];
+    buffer.valueEnds = new int[buffer.types.length];
+    for (Token token : tokens) {
+      int valueStart = source.length();
+      if (token.getValue() != null) {
+        source.append(token.getValue());
+      }
+      buffer.add(token.getTokenType(), positionOf(token.getStartPosition()), positionOf(token.getEndPosition()),
+        valueStart, source.length());
+    }
+    return buffer;
+  }
+
+  /**
+   * Buffer over {@code source} holding the tokens of {@code parts} in order.
+   */
+  static TokenBuffer concat(CharSequence source, TokenBuffer... parts) {
+    int total = 0;
+    for (TokenBuffer part : parts) {
+      total += part.size;
+    }
+    TokenBuffer buffer = new TokenBuffer(source, total);
+    for (TokenBuffer part : parts) {
+      System.arraycopy(part.starts, 0, buffer.starts, buffer.size, part.size);
+      System.arraycopy(part.ends, 0, buffer.ends, buffer.size, part.size);
+      System.arraycopy(part.types, 0, buffer.types, buffer.size, part.size);
+      buffer.size += part.size;
+    }
+    return buffer;
+  }
+
+  /**
+   * Appends a token spanning {@code source[start; end]}.
+   */
+  public void add(TokenType type, int start, int end) {
+    add(type, start, end, start, end + 1);
+  }
+
+  private void add(TokenType type, int start, int end, int valueStart, int valueEnd) {
+    if (size == types.length) {
+      int capacity = size * 2;
+      starts = Arrays.copyOf(starts, capacity);
+      ends = Arrays.copyOf(ends, capacity);
+      types = Arrays.copyOf(types, capacity);
+      if (valueStarts != null) {
+        valueStarts = Arrays.copyOf(valueStarts, capacity);
+        valueEnds = Arrays.copyOf(valueEnds, capacity);
+      }
+    }
+    starts[size] = start;
+    ends[size] = end;
+    types[size] = (byte) type.ordinal();
+    if (valueStarts != null) {
+      valueStarts[size] = valueStart;
+      valueEnds[size] = valueEnd;
+    }
+    size++;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public CharSequence getSource() {
+    return source;
+  }
+
+  public TokenType getTokenType(int index) {
+    return TYPES[types[checkIndex(index)]];
+  }
+
+  public void setTokenType(int index, TokenType type) {
+    types[checkIndex(index)] = (byte) type.ordinal();
+  }
+
+  public int getStartPosition(int index) {
+    return starts[checkIndex(index)];
+  }
+
+  public int getEndPosition(int index) {
+    return ends[checkIndex(index)];
+  }
+
+  /**
+   * The value as a view of the source; no characters are copied.
+   */
+  public CharSequence getValue(int index) {
+    checkIndex(index);
+    return new Slice(valueStart(index), valueEnd(index));
+  }
+
+  public String getValueString(int index) {
+    checkIndex(index);
+    return source.subSequence(valueStart(index), valueEnd(index)).toString();
+  }
+
+  public boolean valueEquals(int index, String value) {
+    checkIndex(index);
+    int start = valueStart(index);
+    int length = valueEnd(index) - start;
+    if (length != value.length()) {
+      return false;
+    }
+    for (int i = 0; i < length; i++) {
+      if (source.charAt(start + i) != value.charAt(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  public Token getToken(int index) {
+    return new Token(getStartPosition(index), getEndPosition(index), getTokenType(index), getValueString(index));
+  }
+
+  public List<Token> toTokens() {
+    List<Token> tokens = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      tokens.add(getToken(i));
+    }
+    return tokens;
+  }
+
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder("[");
+    for (int i = 0; i < size; i++) {
+      if (i > 0) {
+        sb.append(", ");
+      }
+      sb.append(getTokenType(i)).append("('").append(getValue(i)).append("') [")
+        .append(starts[i]).append("; ").append(ends[i]).append(']');
+    }
+    return sb.append(']').toString();
+  }
+
+  private int checkIndex(int index) {
+    return Objects.checkIndex(index, size);
+  }
+
+  private int valueStart(int index) {
+    return valueStarts != null ? valueStarts[index] : starts[index];
+  }
+
+  private int valueEnd(int index) {
+    return valueEnds != null ? valueEnds[index] : ends[index] + 1;
+  }
+
+  private static int positionOf(Integer position) {
+    return position != null ? position : -1;
+  }
+
+  private final class Slice implements CharSequence {
+    private final int from;
+
+    private final int to;
+
+    private Slice(int from, int to) {
+      this.from = from;
+      this.to = to;
+    }
+
+    @Override
+    public int length() {
+      return to - from;
+    }
+
+    @Override
+    public char charAt(int index) {
+      return source.charAt(from + Objects.checkIndex(index, length()));
+    }
+
+    @Override
+    public CharSequence subSequence(int start, int end) {
+      Objects.checkFromToIndex(start, end, length());
+      return new Slice(from + start, from + end);
+    }
+
+    @Override
+    public String toString() {
+      return source.subSequence(from, to).toString();
+    }
+  }
+}
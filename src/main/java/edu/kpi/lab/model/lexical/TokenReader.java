@@ -0,0 +1,286 @@
+package edu.kpi.lab.model.lexical;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+import static edu.kpi.lab.model.lexical.LexicalAnalyzer.ADD;
+import static edu.kpi.lab.model.lexical.LexicalAnalyzer.CLOSE;
+import static edu.kpi.lab.model.lexical.LexicalAnalyzer.DIGIT;
+import static edu.kpi.lab.model.lexical.LexicalAnalyzer.DIVIDE;
+import static edu.kpi.lab.model.lexical.LexicalAnalyzer.DOT;
+import static edu.kpi.lab.model.lexical.LexicalAnalyzer.LETTER;
+import static edu.kpi.lab.model.lexical.LexicalAnalyzer.MINUS;
+import static edu.kpi.lab.model.lexical.LexicalAnalyzer.MULTIPLY;
+import static edu.kpi.lab.model.lexical.LexicalAnalyzer.OPEN;
+import static edu.kpi.lab.model.lexical.LexicalAnalyzer.SPACE;
+
+/**
+ * Pull-based tokenizer over a character stream, producing the same tokens as {@link LexicalAnalyzer#tokenize} one
+ * {@link #next()} at a time. Input is read through a fixed-size buffer and only the current token is kept, so memory
+ * does not grow with the length of the expression, only with its longest token and its bracket depth.
+ *
+ * <p>Whether a name is a function is known only once the following {@code (} is seen; the reader looks one character
+ * ahead, past any skipped whitespace, before it returns a name. Input that ends without any token is rejected like a
+ * blank sentence; without {@code skipWhitespace}, however, whitespace is returned as {@link TokenType#ERROR} tokens as
+ * it arrives, so blank input yields those instead. A reader is not thread-safe.
+ */
+public final class TokenReader implements Closeable {
+  private static final int DEFAULT_BUFFER_SIZE = 8192;
+
+  private final Reader reader;
+
+  private final boolean skipWhitespace;
+
+  private final char[] buffer;
+
+  private int bufferPosition;
+
+  private int bufferLimit;
+
+  private int position;
+
+  private boolean endOfInput;
+
+  private long[] functionBrackets = new long[1];
+
+  private int openedBrackets;
+
+  private boolean functionBracketNext;
+
+  private boolean anyToken;
+
+  private TokenType pendingType;
+
+  private char pendingValue;
+
+  private TokenType tokenType;
+
+  private int startPosition;
+
+  private int endPosition;
+
+  private final StringBuilder value = new StringBuilder();
+
+  public TokenReader(Reader reader) {
+    this(reader, false);
+  }
+
+  public TokenReader(Reader reader, boolean skipWhitespace) {
+    this(reader, skipWhitespace, DEFAULT_BUFFER_SIZE);
+  }
+
+  public TokenReader(Reader reader, boolean skipWhitespace, int bufferSize) {
+    if (bufferSize <= 0) {
+      throw new IllegalArgumentException("Buffer size must be positive");
+    }
+    this.reader = reader;
+    this.skipWhitespace = skipWhitespace;
+    this.buffer = new char[bufferSize];
+  }
+
+  public TokenReader(ReadableByteChannel channel, Charset charset, boolean skipWhitespace) {
+    this(Channels.newReader(channel, charset), skipWhitespace);
+  }
+
+  /**
+   * Advances to the next token.
+   *
+   * @return {@code false} once the input is exhausted
+   */
+  public boolean next() throws IOException {
+    if (pendingType != null) {
+      setToken(pendingType, position - 1, position - 1);
+      value.setLength(0);
+      value.append(pendingValue);
+      pendingType = null;
+      return true;
+    }
+
+    TokenType current = null;
+    int start = 0;
+    value.setLength(0);
+    while (true) {
+      int c = peek();
+      if (c < 0) {
+        if (current == null) {
+          if (!anyToken) {
+            throw new IllegalArgumentException("Sentence is empty");
+          }
+          tokenType = null;
+          return false;
+        }
+        setToken(current, start, position - 1);
+        return true;
+      }
+
+      int i = position;
+      byte charClass = LexicalAnalyzer.classOf((char) c, skipWhitespace);
+      consume();
+
+      if (charClass == SPACE) {
+        if (current != null) {
+          if (current == TokenType.CONSTANT && skipSpacesTo('(')) {
+            current = TokenType.FUNCTION;
+            functionBracketNext = true;
+          }
+          setToken(current, start, i - 1);
+          return true;
+        }
+        continue;
+      }
+
+      TokenType single = null;
+      switch (charClass) {
+        case OPEN -> {
+          boolean function = current == TokenType.CONSTANT || current == null && functionBracketNext;
+          if (current == TokenType.CONSTANT) {
+            current = TokenType.FUNCTION;
+          }
+          pushBracket(function);
+          single = function ? TokenType.FUNCTION_OPEN_BRACKET : TokenType.OPEN_BRACKET;
+        }
+        case CLOSE -> single = popBracket() ? TokenType.FUNCTION_CLOSE_BRACKET : TokenType.CLOSE_BRACKET;
+        case ADD -> single = TokenType.OPERATION_ADD;
+        case MINUS -> single = TokenType.OPERATION_MINUS;
+        case MULTIPLY -> single = TokenType.OPERATION_MULTIPLY;
+        case DIVIDE -> single = TokenType.OPERATION_DIVIDE;
+        case DOT -> {
+          if (current == TokenType.INTEGER) {
+            current = TokenType.DECIMAL;
+          } else if (current != TokenType.DECIMAL && current != TokenType.FUNCTION) {
+            single = TokenType.ERROR;
+          }
+        }
+        case DIGIT -> {
+          if (current == null) {
+            current = TokenType.INTEGER;
+            start = i;
+          } else if (current != TokenType.INTEGER && current != TokenType.DECIMAL && current != TokenType.FUNCTION &&
+                     current != TokenType.CONSTANT) {
+            single = TokenType.ERROR;
+          }
+        }
+        case LETTER -> {
+          if (current == null) {
+            current = TokenType.CONSTANT;
+            start = i;
+          } else if (current != TokenType.CONSTANT && current != TokenType.FUNCTION) {
+            single = TokenType.ERROR;
+          }
+        }
+        default -> single = TokenType.ERROR;
+      }
+      functionBracketNext = false;
+
+      if (single == null) {
+        value.append((char) c);
+      } else if (current != null) {
+        pendingType = single;
+        pendingValue = (char) c;
+        setToken(current, start, i - 1);
+        return true;
+      } else {
+        setToken(single, i, i);
+        value.append((char) c);
+        return true;
+      }
+    }
+  }
+
+  /**
+   * Type of the current token, or {@code null} before the first and after the last call to {@link #next()}.
+   */
+  public TokenType getTokenType() {
+    return tokenType;
+  }
+
+  public int getStartPosition() {
+    return startPosition;
+  }
+
+  public int getEndPosition() {
+    return endPosition;
+  }
+
+  /**
+   * The value of the current token; the sequence is reused by the next call to {@link #next()}.
+   */
+  public CharSequence getValue() {
+    return value;
+  }
+
+  public boolean valueEquals(String expected) {
+    return expected.contentEquals(value);
+  }
+
+  public Token getToken() {
+    return new Token(startPosition, endPosition, tokenType, value.toString());
+  }
+
+  @Override
+  public void close() throws IOException {
+    reader.close();
+  }
+
+  private void setToken(TokenType type, int start, int end) {
+    tokenType = type;
+    startPosition = start;
+    endPosition = end;
+    anyToken = true;
+  }
+
+  /**
+   * Consumes whitespace and tells whether the next character is {@code expected}, without consuming it.
+   */
+  private boolean skipSpacesTo(char expected) throws IOException {
+    int c;
+    while ((c = peek()) >= 0 && LexicalAnalyzer.classOf((char) c, skipWhitespace) == SPACE) {
+      consume();
+    }
+    return c == expected;
+  }
+
+  private int peek() throws IOException {
+    while (bufferPosition == bufferLimit) {
+      if (endOfInput) {
+        return -1;
+      }
+      int read = reader.read(buffer, 0, buffer.length);
+      if (read < 0) {
+        endOfInput = true;
+      } else {
+        bufferPosition = 0;
+        bufferLimit = read;
+      }
+    }
+    return buffer[bufferPosition];
+  }
+
+  private void consume() {
+    bufferPosition++;
+    position++;
+  }
+
+  private void pushBracket(boolean function) {
+    if (openedBrackets == functionBrackets.length * Long.SIZE) {
+      functionBrackets = Arrays.copyOf(functionBrackets, functionBrackets.length * 2);
+    }
+    int word = openedBrackets / Long.SIZE;
+    long bit = 1L << openedBrackets % Long.SIZE;
+    functionBrackets[word] = function ? functionBrackets[word] | bit : functionBrackets[word] & ~bit;
+    openedBrackets++;
+  }
+
+  private boolean popBracket() {
+    if (openedBrackets == 0) {
+      return false;
+    }
+    openedBrackets--;
+    return (functionBrackets[openedBrackets / Long.SIZE] & 1L << openedBrackets % Long.SIZE) != 0;
+  }
+}
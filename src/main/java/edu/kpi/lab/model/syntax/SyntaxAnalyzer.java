@@ -1,9 +1,14 @@
 package edu.kpi.lab.model.syntax;
 
+import edu.kpi.lab.model.budget.BudgetedResult;
+import edu.kpi.lab.model.budget.EnumerationBudget;
 import edu.kpi.lab.model.lexical.Token;
+import edu.kpi.lab.model.lexical.TokenBuffer;
+import edu.kpi.lab.model.lexical.TokenReader;
 import edu.kpi.lab.model.syntax.tree.Function;
 import edu.kpi.lab.model.syntax.tree.Node;
 import edu.kpi.lab.model.syntax.tree.Operand;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
@@ -20,10 +25,44 @@ import static edu.kpi.lab.model.syntax.SyntaxValidator.getTokenSyntaxType;
 public class SyntaxAnalyzer {
 
   public Function buildSyntaxTree(List<Token> tokens) {
-    List<Node> operands = new ArrayList<>();
-    List<SyntaxType> operators = new ArrayList<>();
+    return buildSyntaxTree(tokens, EnumerationBudget.unlimited()).getValue();
+  }
+
+  public Function buildSyntaxTree(TokenBuffer tokens) {
+    return buildSyntaxTree(tokens, EnumerationBudget.unlimited()).getValue();
+  }
 
-    parseTokensToList(tokens, operands, operators);
+  /**
+   * Stops the optimisation fixpoint early once the budget is exhausted and returns the tree optimised so far.
+   */
+  public BudgetedResult<Function> buildSyntaxTree(List<Token> tokens, EnumerationBudget budget) {
+    return buildSyntaxTree(TokenBuffer.of(tokens), budget);
+  }
+
+  public BudgetedResult<Function> buildSyntaxTree(TokenBuffer tokens, EnumerationBudget budget) {
+    OperandCollector collector = new OperandCollector();
+    for (int i = 0; i < tokens.size(); i++) {
+      SyntaxType type = getTokenSyntaxType(tokens.getTokenType(i));
+      collector.accept(type, type == OPERAND ? tokens.getValueString(i) : null);
+    }
+    return buildSyntaxTree(collector, budget);
+  }
+
+  /**
+   * Builds the tree while {@code tokens} reads the input, so the tokens are never held in memory together.
+   */
+  public BudgetedResult<Function> buildSyntaxTree(TokenReader tokens, EnumerationBudget budget) throws IOException {
+    OperandCollector collector = new OperandCollector();
+    while (tokens.next()) {
+      SyntaxType type = getTokenSyntaxType(tokens.getTokenType());
+      collector.accept(type, type == OPERAND ? tokens.getValue().toString() : null);
+    }
+    return buildSyntaxTree(collector, budget);
+  }
+
+  private BudgetedResult<Function> buildSyntaxTree(OperandCollector collector, EnumerationBudget budget) {
+    List<Node> operands = collector.currentOperands;
+    List<SyntaxType> operators = collector.currentOperators;
 
     if (operands.isEmpty()) {
       throw new IllegalArgumentException("No operands found");
@@ -35,24 +74,26 @@ public class SyntaxAnalyzer {
 
     Function tree = buildBalancedParallelTree(operands, operators);
 
-    return optimizeTree(tree);
+    return budget.result(optimizeTree(tree, budget));
   }
 
-  private void parseTokensToList(List<Token> tokens, List<Node> operands, List<SyntaxType> operators) {
-    Stack<List<Node>> operandStack = new Stack<>();
-    Stack<List<SyntaxType>> operatorStack = new Stack<>();
-
-    List<Node> currentOperands = new ArrayList<>();
-    List<SyntaxType> currentOperators = new ArrayList<>();
+  /**
+   * Collects the operands and operators of the top level one token at a time; bracketed parts are built into
+   * subtrees as soon as they close.
+   */
+  private class OperandCollector {
+    private final Stack<List<Node>> operandStack = new Stack<>();
+    private final Stack<List<SyntaxType>> operatorStack = new Stack<>();
 
-    boolean expectOperand = true;
+    private List<Node> currentOperands = new ArrayList<>();
+    private List<SyntaxType> currentOperators = new ArrayList<>();
 
-    for (Token token : tokens) {
-      SyntaxType type = getTokenSyntaxType(token);
+    private boolean expectOperand = true;
 
+    void accept(SyntaxType type, String value) {
       switch (type) {
         case OPERAND -> {
-          currentOperands.add(new Operand(OPERAND, token.getValue()));
+          currentOperands.add(new Operand(OPERAND, value));
           expectOperand = false;
         }
         case OPERATION_MINUS -> {
@@ -92,9 +133,6 @@ public class SyntaxAnalyzer {
         }
       }
     }
-
-    operands.addAll(currentOperands);
-    operators.addAll(currentOperators);
   }
 
   private Function buildBalancedParallelTree(List<Node> operands, List<SyntaxType> operators) {
@@ -178,7 +216,7 @@ public class SyntaxAnalyzer {
     return queue.poll();
   }
 
-  private Function optimizeTree(Function root) {
+  private Function optimizeTree(Function root, EnumerationBudget budget) {
     if (root == null) {
       return null;
     }
@@ -197,7 +235,7 @@ public class SyntaxAnalyzer {
         return new Function(current, null, null);
       }
       iterations++;
-    } while (!treesEqual(current, previous) && iterations < maxIterations);
+    } while (!treesEqual(current, previous) && iterations < maxIterations && !budget.isExhausted());
 
     return current;
   }
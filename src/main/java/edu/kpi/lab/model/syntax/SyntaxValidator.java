@@ -1,7 +1,11 @@
 package edu.kpi.lab.model.syntax;
 
+import edu.kpi.lab.model.lexical.BracketPairs;
 import edu.kpi.lab.model.lexical.Token;
+import edu.kpi.lab.model.lexical.TokenBuffer;
+import edu.kpi.lab.model.lexical.TokenReader;
 import edu.kpi.lab.model.lexical.TokenType;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.EmptyStackException;
@@ -10,7 +14,11 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.IntPredicate;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 import lombok.EqualsAndHashCode;
 import lombok.Getter;
 
@@ -29,6 +37,8 @@ import static edu.kpi.lab.model.syntax.SyntaxType.OPERATION_MULTIPLY;
 import static edu.kpi.lab.model.syntax.SyntaxType.START;
 
 public class SyntaxValidator {
+  private static final int PARALLEL_THRESHOLD = 1 << 15;
+
   private final Map<SyntaxType, Set<SyntaxType>> allowedCombinations;
 
   {
@@ -57,27 +67,139 @@ public class SyntaxValidator {
       Arrays.stream(SyntaxType.values()).filter(st -> st != ERROR).collect(Collectors.toSet()));
   }
 
+  /**
+   * Validates {@code tokens} through a {@link TokenBuffer} and marks misplaced tokens as {@link TokenType#ERROR} in the
+   * list as well.
+   */
   public boolean validateTokenQuery(List<Token> tokens) {
+    TokenBuffer buffer = TokenBuffer.of(tokens);
+    boolean isQueryCorrect = validateTokenQuery(buffer);
+    for (int i = 0; i < tokens.size(); i++) {
+      tokens.get(i).setTokenType(buffer.getTokenType(i));
+    }
+    return isQueryCorrect;
+  }
+
+  public boolean validateTokenQuery(TokenBuffer tokens) {
     List<Error> errors = new ArrayList<>();
     Stack<SyntaxType> openedBrackets = new Stack<>();
 
-    validateTokenWith(errors, openedBrackets, tokens.getFirst(), START);
+    SyntaxType previous = START;
+    for (int i = 0; i < tokens.size(); i++) {
+      if (validateTokenWith(errors, openedBrackets, tokens.getTokenType(i), tokens.getStartPosition(i),
+        tokens.getEndPosition(i), tokens.valueEquals(i, "0"), previous)) {
+        tokens.setTokenType(i, TokenType.ERROR);
+      }
+      previous = getTokenSyntaxType(tokens.getTokenType(i));
+    }
+
+    int last = tokens.size() - 1;
+    validateEnd(errors, tokens.getTokenType(last), tokens.getEndPosition(last), !openedBrackets.isEmpty());
+    return report(errors);
+  }
+
+  /**
+   * Validates tokens as {@code tokens} reads them, with the same errors and output as
+   * {@link #validateTokenQuery(TokenBuffer)}. Only the previous token and the open brackets are kept, so the input
+   * never has to be in memory at once.
+   */
+  public boolean validateTokenQuery(TokenReader tokens) throws IOException {
+    List<Error> errors = new ArrayList<>();
+    Stack<SyntaxType> openedBrackets = new Stack<>();
+
+    SyntaxType previous = START;
+    TokenType lastType = null;
+    int lastEnd = 0;
+    while (tokens.next()) {
+      lastType = tokens.getTokenType();
+      lastEnd = tokens.getEndPosition();
+      if (validateTokenWith(errors, openedBrackets, lastType, tokens.getStartPosition(), lastEnd,
+        tokens.valueEquals("0"), previous)) {
+        lastType = TokenType.ERROR;
+      }
+      previous = getTokenSyntaxType(lastType);
+    }
+
+    validateEnd(errors, lastType, lastEnd, !openedBrackets.isEmpty());
+    return report(errors);
+  }
+
+  /**
+   * Validates {@code tokens} on {@code pool}, with the same errors, output and {@link TokenType#ERROR} marks as
+   * {@link #validateTokenQuery(TokenBuffer)}. Brackets are matched by {@link BracketPairs}. Whether a token is marked
+   * depends only on its predecessor's type and whether that one was marked, so each token is a function from "the
+   * previous token was marked" to "this one is", and a parallel prefix over those functions marks them all.
+   */
+  public boolean validateTokenQuery(TokenBuffer tokens, ForkJoinPool pool) {
+    if (tokens.size() < PARALLEL_THRESHOLD) {
+      return validateTokenQuery(tokens);
+    }
+    BracketPairs pairs = BracketPairs.match(tokens, pool);
+    SyntaxType[] syntaxTypes = new SyntaxType[tokens.size()];
+    int mismatched = pool.invoke(ForkJoinTask.adapt(() -> {
+      Arrays.parallelSetAll(syntaxTypes, i -> getTokenSyntaxType(tokens.getTokenType(i)));
+      return IntStream.range(0, syntaxTypes.length).parallel()
+        .filter(i -> pairs.getPartner(i) >= 0 && pairs.getPartner(i) < i &&
+                     syntaxTypes[pairs.getPartner(i)] != (syntaxTypes[i] == CLOSE_BRACKET ? OPEN_BRACKET :
+                                                          FUNCTION_OPEN_BRACKET))
+        .findFirst()
+        .orElse(-1);
+    }));
+    if (mismatched >= 0) {
+      throw new IllegalArgumentException(syntaxTypes[mismatched] == CLOSE_BRACKET ? "Regular bracket must be closed" :
+                                         "Function bracket must be closed");
+    }
+
+    List<Error> errors = pool.invoke(ForkJoinTask.adapt(() -> findErrors(tokens, syntaxTypes, pairs)));
+    int last = tokens.size() - 1;
+    validateEnd(errors, tokens.getTokenType(last), tokens.getEndPosition(last), pairs.getUnclosed() > 0);
+    return report(errors);
+  }
+
+  private List<Error> findErrors(TokenBuffer tokens, SyntaxType[] syntaxTypes, BracketPairs pairs) {
+    int size = tokens.size();
+    // bit 0: whether the token is marked if its predecessor is not, bit 1: if its predecessor is
+    int[] marks = new int[size];
+    Arrays.parallelSetAll(marks, i -> {
+      boolean unmatched = (syntaxTypes[i] == CLOSE_BRACKET || syntaxTypes[i] == FUNCTION_CLOSE_BRACKET) &&
+                          pairs.getPartner(i) < 0;
+      SyntaxType previous = i == 0 ? START : syntaxTypes[i - 1];
+      int afterValid = unmatched || !allowedCombinations.get(previous).contains(syntaxTypes[i]) ? 1 : 0;
+      int afterMarked = unmatched || !allowedCombinations.get(ERROR).contains(syntaxTypes[i]) ? 1 : 0;
+      return i == 0 ? afterValid * 3 : afterValid | afterMarked << 1;
+    });
+    Arrays.parallelPrefix(marks, (first, then) ->
+      (then >> (first & 1) & 1) | (then >> (first >> 1 & 1) & 1) << 1);
 
-    for (int i = 1; i < tokens.size(); i++) {
-      validateTokenWith(errors, openedBrackets,
-        tokens.get(i), getTokenSyntaxType(tokens.get(i - 1)));
+    IntPredicate marked = i -> (marks[i] & 1) != 0;
+    IntPredicate dividesByZero = i -> i > 0 && tokens.getTokenType(i) == TokenType.INTEGER &&
+                                      tokens.valueEquals(i, "0") && syntaxTypes[i - 1] == OPERATION_DIVIDE &&
+                                      !marked.test(i - 1);
+    int[] flagged = IntStream.range(0, size).parallel().filter(marked.or(dividesByZero)).toArray();
+
+    List<Error> errors = new ArrayList<>();
+    for (int i : flagged) {
+      if (dividesByZero.test(i)) {
+        errors.add(new Error(tokens.getEndPosition(i), tokens.getEndPosition(i), "Divide by zero"));
+      }
+      if (marked.test(i)) {
+        addUnexpected(errors, tokens.getTokenType(i), tokens.getStartPosition(i), tokens.getEndPosition(i));
+        tokens.setTokenType(i, TokenType.ERROR);
+      }
     }
+    return errors;
+  }
 
-    Token lastToken = tokens.getLast();
-    if (!Set.of(CLOSE_BRACKET, FUNCTION_CLOSE_BRACKET, OPERAND, ERROR).contains(getTokenSyntaxType(lastToken))) {
-      errors.add(new Error(lastToken.getEndPosition(), lastToken.getEndPosition(),
-        "Query cannot be finished with " + lastToken.getTokenType()));
+  private void validateEnd(List<Error> errors, TokenType lastType, int lastEnd, boolean unclosedBrackets) {
+    if (!Set.of(CLOSE_BRACKET, FUNCTION_CLOSE_BRACKET, OPERAND, ERROR).contains(getTokenSyntaxType(lastType))) {
+      errors.add(new Error(lastEnd, lastEnd, "Query cannot be finished with " + lastType));
     }
-    if (!openedBrackets.isEmpty()) {
-      errors.add(
-        new Error(lastToken.getEndPosition(), lastToken.getEndPosition(), "There are unclosed brackets in query"));
+    if (unclosedBrackets) {
+      errors.add(new Error(lastEnd, lastEnd, "There are unclosed brackets in query"));
     }
+  }
 
+  private boolean report(List<Error> errors) {
     if (errors.isEmpty()) {
       System.out.println("Query has no errors");
       return true;
@@ -90,10 +212,14 @@ public class SyntaxValidator {
     }
   }
 
-  private void validateTokenWith(List<Error> errors, Stack<SyntaxType> openedBrackets, Token token,
-                                 SyntaxType previousTokenSyntaxType) {
+  /**
+   * Checks one token and reports whether it has to be marked as {@link TokenType#ERROR}.
+   */
+  private boolean validateTokenWith(List<Error> errors, Stack<SyntaxType> openedBrackets, TokenType tokenType,
+                                    int startPosition, int endPosition, boolean isZero,
+                                    SyntaxType previousTokenSyntaxType) {
     Set<SyntaxType> allowedPositions = allowedCombinations.get(previousTokenSyntaxType);
-    SyntaxType syntaxType = getTokenSyntaxType(token);
+    SyntaxType syntaxType = getTokenSyntaxType(tokenType);
     try {
       if (syntaxType == OPEN_BRACKET || syntaxType == FUNCTION_OPEN_BRACKET) {
         openedBrackets.push(syntaxType);
@@ -109,27 +235,33 @@ public class SyntaxValidator {
         }
       }
 
-      if (token.getTokenType().equals(TokenType.INTEGER) && token.getValue().equals("0") &&
+      if (tokenType.equals(TokenType.INTEGER) && isZero &&
           previousTokenSyntaxType.equals(OPERATION_DIVIDE)) {
-        errors.add(new Error(token.getEndPosition(), token.getEndPosition(), "Divide by zero"));
+        errors.add(new Error(endPosition, endPosition, "Divide by zero"));
       }
 
       boolean isPlaceCorrect = allowedPositions.contains(syntaxType);
       if (!isPlaceCorrect) {
-        String message = token.getTokenType() + " is unexpected.";
-        token.setTokenType(TokenType.ERROR);
-        errors.add(new Error(token.getStartPosition(), token.getEndPosition(), message));
+        addUnexpected(errors, tokenType, startPosition, endPosition);
+        return true;
       }
+      return false;
 
     } catch (EmptyStackException e) {
-      String message = token.getTokenType() + " is unexpected.";
-      token.setTokenType(TokenType.ERROR);
-      errors.add(new Error(token.getStartPosition(), token.getEndPosition(), message));
+      addUnexpected(errors, tokenType, startPosition, endPosition);
+      return true;
     }
   }
 
+  private void addUnexpected(List<Error> errors, TokenType tokenType, int startPosition, int endPosition) {
+    errors.add(new Error(startPosition, endPosition, tokenType + " is unexpected."));
+  }
+
   public static SyntaxType getTokenSyntaxType(Token token) {
-    TokenType tokenType = token.getTokenType();
+    return getTokenSyntaxType(token.getTokenType());
+  }
+
+  public static SyntaxType getTokenSyntaxType(TokenType tokenType) {
     if (TokenType.operandTypes.contains(tokenType)) {
       if (tokenType.equals(TokenType.FUNCTION)) {
         return FUNCTION;
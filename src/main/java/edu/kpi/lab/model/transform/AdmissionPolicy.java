@@ -0,0 +1,52 @@
+package edu.kpi.lab.model.transform;
+
+import java.math.BigInteger;
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * Decides what a transformer does with an input whose exact number of equivalent forms is known before enumeration:
+ * run it as requested, reject it, or downgrade it to a cheaper bounded answer.
+ */
+@Getter
+@AllArgsConstructor(access = AccessLevel.PRIVATE)
+public class AdmissionPolicy {
+
+  public enum Decision {
+    ACCEPT, DOWNGRADE, REJECT
+  }
+
+  private final BigInteger maxForms;
+
+  private final Decision overLimit;
+
+  private final int downgradedForms;
+
+  public static AdmissionPolicy unlimited() {
+    return new AdmissionPolicy(null, Decision.ACCEPT, 0);
+  }
+
+  public static AdmissionPolicy reject(long maxForms) {
+    return new AdmissionPolicy(BigInteger.valueOf(maxForms), Decision.REJECT, 0);
+  }
+
+  /**
+   * Inputs over the limit produce at most {@code downgradedForms} forms instead of the full set.
+   */
+  public static AdmissionPolicy downgrade(long maxForms, int downgradedForms) {
+    return new AdmissionPolicy(BigInteger.valueOf(maxForms), Decision.DOWNGRADE, downgradedForms);
+  }
+
+  public Decision decide(BigInteger forms) {
+    if (maxForms == null || forms.compareTo(maxForms) <= 0) {
+      return Decision.ACCEPT;
+    }
+    return overLimit;
+  }
+
+  public IllegalArgumentException rejection(BigInteger forms) {
+    return new IllegalArgumentException(
+      String.format("Expression has %s equivalent forms, admission limit is %s", forms, maxForms));
+  }
+}
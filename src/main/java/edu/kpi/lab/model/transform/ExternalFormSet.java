@@ -0,0 +1,158 @@
+package edu.kpi.lab.model.transform;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+
+/**
+ * Disk-backed set of rendered forms for results that do not fit in memory. Forms are collected in a bounded in-memory
+ * buffer; every full buffer is written out as a sorted run, and {@link #finish()} merges the runs into one sorted file
+ * without duplicates. Heap usage depends only on the buffer size and the merge fan-in, never on the number of forms.
+ */
+public class ExternalFormSet implements Closeable {
+  private static final int MERGE_FAN_IN = 64;
+
+  private final Path workDirectory;
+
+  private final int maxBufferedForms;
+
+  private final TreeSet<String> buffer = new TreeSet<>();
+
+  private final List<Path> runs = new ArrayList<>();
+
+  public ExternalFormSet(Path tempDirectory, int maxBufferedForms) {
+    if (maxBufferedForms < 1) {
+      throw new IllegalArgumentException("At least one form must fit in the buffer");
+    }
+    try {
+      Files.createDirectories(tempDirectory);
+      this.workDirectory = Files.createTempDirectory(tempDirectory, "forms");
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+    this.maxBufferedForms = maxBufferedForms;
+  }
+
+  public void add(String form) {
+    buffer.add(form);
+    if (buffer.size() >= maxBufferedForms) {
+      flush();
+    }
+  }
+
+  /**
+   * Merges everything added so far into a sorted file with one distinct form per line. The file is left in place when
+   * the set is closed; read it with {@link Files#lines(Path)} to stream the result.
+   */
+  public Path finish() {
+    flush();
+    try {
+      while (runs.size() > MERGE_FAN_IN) {
+        List<Path> batch = new ArrayList<>(runs.subList(0, MERGE_FAN_IN));
+        runs.subList(0, MERGE_FAN_IN).clear();
+        runs.add(merge(batch, Files.createTempFile(workDirectory, "run", ".txt")));
+      }
+      Path result = Files.createTempFile(workDirectory.getParent(), "equivalents", ".txt");
+      return merge(new ArrayList<>(runs), result);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } finally {
+      runs.clear();
+    }
+  }
+
+  @Override
+  public void close() {
+    buffer.clear();
+    try {
+      for (Path run : runs) {
+        Files.deleteIfExists(run);
+      }
+      runs.clear();
+      Files.deleteIfExists(workDirectory);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private void flush() {
+    if (buffer.isEmpty()) {
+      return;
+    }
+    try {
+      Path run = Files.createTempFile(workDirectory, "run", ".txt");
+      try (BufferedWriter writer = Files.newBufferedWriter(run, StandardCharsets.UTF_8)) {
+        for (String form : buffer) {
+          writer.write(form);
+          writer.newLine();
+        }
+      }
+      runs.add(run);
+      buffer.clear();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private Path merge(List<Path> inputs, Path output) throws IOException {
+    List<BufferedReader> readers = new ArrayList<>(inputs.size());
+    PriorityQueue<RunHead> heads = new PriorityQueue<>();
+    try (BufferedWriter writer = Files.newBufferedWriter(output, StandardCharsets.UTF_8)) {
+      for (Path input : inputs) {
+        BufferedReader reader = Files.newBufferedReader(input, StandardCharsets.UTF_8);
+        readers.add(reader);
+        RunHead.advance(reader, heads);
+      }
+      String last = null;
+      while (!heads.isEmpty()) {
+        RunHead head = heads.poll();
+        if (!head.form.equals(last)) {
+          writer.write(head.form);
+          writer.newLine();
+          last = head.form;
+        }
+        RunHead.advance(head.reader, heads);
+      }
+    } finally {
+      for (BufferedReader reader : readers) {
+        reader.close();
+      }
+      for (Path input : inputs) {
+        Files.deleteIfExists(input);
+      }
+    }
+    return output;
+  }
+
+  private static final class RunHead implements Comparable<RunHead> {
+    private final String form;
+
+    private final BufferedReader reader;
+
+    private RunHead(String form, BufferedReader reader) {
+      this.form = form;
+      this.reader = reader;
+    }
+
+    static void advance(BufferedReader reader, PriorityQueue<RunHead> heads) throws IOException {
+      String line = reader.readLine();
+      if (line != null) {
+        heads.add(new RunHead(line, reader));
+      }
+    }
+
+    @Override
+    public int compareTo(RunHead other) {
+      return form.compareTo(other.form);
+    }
+  }
+}
@@ -0,0 +1,84 @@
+package edu.kpi.lab.model.transform;
+
+import lombok.AccessLevel;
+import lombok.EqualsAndHashCode;
+import lombok.Getter;
+
+/**
+ * 128-bit fingerprint of a rendered expression, built from two independent polynomial hashes (modulo 2^61-1 and
+ * modulo 2^64). Fingerprints of adjacent pieces combine in constant time, so a tree can fingerprint its text bottom-up
+ * without ever building the string, and two trees get equal fingerprints exactly when they render to the same text
+ * (up to a negligible collision probability).
+ */
+@Getter
+@EqualsAndHashCode
+public final class Fingerprint {
+  private static final long MOD = (1L << 61) - 1;
+
+  private static final long HIGH_BASE = 0x1F3D5B79A2C4E6FL % MOD;
+
+  private static final long LOW_BASE = 0x9E3779B97F4A7C15L;
+
+  public static final Fingerprint EMPTY = new Fingerprint(0, 0, 1, 1);
+
+  private final long high;
+
+  private final long low;
+
+  @Getter(AccessLevel.NONE)
+  private final long highPower;
+
+  @Getter(AccessLevel.NONE)
+  private final long lowPower;
+
+  private Fingerprint(long high, long low, long highPower, long lowPower) {
+    this.high = high;
+    this.low = low;
+    this.highPower = highPower;
+    this.lowPower = lowPower;
+  }
+
+  public static Fingerprint of(CharSequence text) {
+    long high = 0;
+    long low = 0;
+    long highPower = 1;
+    long lowPower = 1;
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      high = addMod(mulMod(high, HIGH_BASE), c);
+      low = low * LOW_BASE + c;
+      highPower = mulMod(highPower, HIGH_BASE);
+      lowPower *= LOW_BASE;
+    }
+    return new Fingerprint(high, low, highPower, lowPower);
+  }
+
+  /**
+   * Fingerprint of this text immediately followed by {@code next}.
+   */
+  public Fingerprint concat(Fingerprint next) {
+    return new Fingerprint(
+      addMod(mulMod(high, next.highPower), next.high),
+      low * next.lowPower + next.low,
+      mulMod(highPower, next.highPower),
+      lowPower * next.lowPower);
+  }
+
+  private static long mulMod(long a, long b) {
+    long lowBits = a * b;
+    long highBits = Math.multiplyHigh(a, b);
+    long r = (lowBits & MOD) + ((lowBits >>> 61) | (highBits << 3));
+    r = (r & MOD) + (r >>> 61);
+    return r >= MOD ? r - MOD : r;
+  }
+
+  private static long addMod(long a, long b) {
+    long r = a + b;
+    return r >= MOD ? r - MOD : r;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%016x%016x", high, low);
+  }
+}
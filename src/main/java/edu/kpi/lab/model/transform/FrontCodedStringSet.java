@@ -0,0 +1,332 @@
+package edu.kpi.lab.model.transform;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+
+/**
+ * Immutable sorted set of strings stored front-coded in one byte array. Strings are kept as UTF-8 in unsigned byte
+ * order and grouped into blocks of {@value #BLOCK_SIZE}: the first string of a block is stored in full, every other
+ * one as the length of the prefix it shares with its predecessor followed by the remaining bytes. Equivalent forms of
+ * one expression share long prefixes, so this takes a fraction of the memory of a {@code HashSet<String>}.
+ *
+ * <p>{@link #contains(Object)} binary-searches the block heads and scans one block; iteration decodes the blocks in
+ * order. Build instances with {@link Builder}.
+ */
+public final class FrontCodedStringSet extends AbstractSet<String> {
+  private static final int BLOCK_SIZE = 16;
+
+  private static final FrontCodedStringSet EMPTY = new FrontCodedStringSet(new byte[0], new int[0], 0);
+
+  private final byte[] data;
+
+  private final int[] blocks;
+
+  private final int size;
+
+  private FrontCodedStringSet(byte[] data, int[] blocks, int size) {
+    this.data = data;
+    this.blocks = blocks;
+    this.size = size;
+  }
+
+  public static FrontCodedStringSet of(Iterable<String> forms) {
+    Builder builder = new Builder();
+    for (String form : forms) {
+      builder.add(form);
+    }
+    return builder.build();
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean contains(Object o) {
+    if (!(o instanceof String form) || size == 0) {
+      return false;
+    }
+    byte[] key = form.getBytes(StandardCharsets.UTF_8);
+
+    Cursor cursor = new Cursor(0);
+    int low = 0;
+    int high = blocks.length - 1;
+    while (low < high) {
+      int mid = (low + high + 1) >>> 1;
+      cursor.seek(mid);
+      cursor.advance();
+      if (cursor.compareTo(key) <= 0) {
+        low = mid;
+      } else {
+        high = mid - 1;
+      }
+    }
+
+    cursor.seek(low);
+    int end = Math.min(size, (low + 1) * BLOCK_SIZE);
+    for (int i = low * BLOCK_SIZE; i < end; i++) {
+      cursor.advance();
+      int c = cursor.compareTo(key);
+      if (c == 0) {
+        return true;
+      } else if (c > 0) {
+        return false;
+      }
+    }
+    return false;
+  }
+
+  @Override
+  public Iterator<String> iterator() {
+    return new Iterator<>() {
+      private final Cursor cursor = new Cursor(0);
+      private int index;
+
+      @Override
+      public boolean hasNext() {
+        return index < size;
+      }
+
+      @Override
+      public String next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        if (index % BLOCK_SIZE == 0) {
+          cursor.seek(index / BLOCK_SIZE);
+        }
+        index++;
+        cursor.advance();
+        return new String(cursor.current, 0, cursor.length, StandardCharsets.UTF_8);
+      }
+    };
+  }
+
+  /**
+   * Bytes used by the encoded strings and the block index.
+   */
+  public long getEncodedBytes() {
+    return data.length + (long) blocks.length * Integer.BYTES;
+  }
+
+  /**
+   * Decodes a block entry by entry into a reusable buffer.
+   */
+  private final class Cursor {
+    private byte[] current = new byte[64];
+    private int length;
+    private int position;
+    private boolean head;
+
+    private Cursor(int block) {
+      seek(block);
+    }
+
+    void seek(int block) {
+      position = block < blocks.length ? blocks[block] : data.length;
+      head = true;
+    }
+
+    void advance() {
+      int prefix = head ? 0 : readVarInt();
+      int suffix = readVarInt();
+      if (current.length < prefix + suffix) {
+        current = Arrays.copyOf(current, Math.max(prefix + suffix, current.length * 2));
+      }
+      System.arraycopy(data, position, current, prefix, suffix);
+      position += suffix;
+      length = prefix + suffix;
+      head = false;
+    }
+
+    int compareTo(byte[] key) {
+      return Arrays.compareUnsigned(current, 0, length, key, 0, key.length);
+    }
+
+    private int readVarInt() {
+      int value = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = data[position++];
+        value |= (b & 0x7F) << shift;
+        shift += 7;
+      } while (b < 0);
+      return value;
+    }
+  }
+
+  /**
+   * Collects strings in any order and with duplicates. At most {@value #MAX_BUFFERED_FORMS} strings are buffered as
+   * objects; full buffers are encoded into sorted runs, which are merged whenever {@value #MERGE_FAN_IN} of them have
+   * piled up and once more by {@link #build()}.
+   */
+  public static final class Builder {
+    private static final int MAX_BUFFERED_FORMS = 1 << 14;
+
+    private static final int MERGE_FAN_IN = 64;
+
+    private final TreeSet<byte[]> buffer = new TreeSet<>(Arrays::compareUnsigned);
+
+    private final List<FrontCodedStringSet> runs = new ArrayList<>();
+
+    public Builder add(String form) {
+      buffer.add(form.getBytes(StandardCharsets.UTF_8));
+      if (buffer.size() >= MAX_BUFFERED_FORMS) {
+        flush();
+      }
+      return this;
+    }
+
+    public FrontCodedStringSet build() {
+      flush();
+      if (runs.isEmpty()) {
+        return EMPTY;
+      }
+      FrontCodedStringSet result = runs.size() == 1 ? runs.getFirst() : merge(runs);
+      runs.clear();
+      return result;
+    }
+
+    private void flush() {
+      if (buffer.isEmpty()) {
+        return;
+      }
+      Encoder encoder = new Encoder();
+      for (byte[] form : buffer) {
+        encoder.add(form, form.length);
+      }
+      buffer.clear();
+      runs.add(encoder.finish());
+      if (runs.size() >= MERGE_FAN_IN) {
+        FrontCodedStringSet merged = merge(runs);
+        runs.clear();
+        runs.add(merged);
+      }
+    }
+
+    private static FrontCodedStringSet merge(List<FrontCodedStringSet> inputs) {
+      PriorityQueue<RunHead> heads = new PriorityQueue<>();
+      for (FrontCodedStringSet input : inputs) {
+        RunHead.advance(new RunHead(input), heads);
+      }
+      Encoder encoder = new Encoder();
+      while (!heads.isEmpty()) {
+        RunHead head = heads.poll();
+        encoder.addIfNew(head.cursor.current, head.cursor.length);
+        RunHead.advance(head, heads);
+      }
+      return encoder.finish();
+    }
+  }
+
+  private static final class RunHead implements Comparable<RunHead> {
+    private final FrontCodedStringSet run;
+
+    private final Cursor cursor;
+
+    private int index;
+
+    private RunHead(FrontCodedStringSet run) {
+      this.run = run;
+      this.cursor = run.new Cursor(0);
+    }
+
+    static void advance(RunHead head, PriorityQueue<RunHead> heads) {
+      if (head.index < head.run.size) {
+        if (head.index % BLOCK_SIZE == 0) {
+          head.cursor.seek(head.index / BLOCK_SIZE);
+        }
+        head.index++;
+        head.cursor.advance();
+        heads.add(head);
+      }
+    }
+
+    @Override
+    public int compareTo(RunHead other) {
+      return Arrays.compareUnsigned(cursor.current, 0, cursor.length, other.cursor.current, 0, other.cursor.length);
+    }
+  }
+
+  /**
+   * Appends strings that arrive in ascending order.
+   */
+  private static final class Encoder {
+    private byte[] data = new byte[256];
+    private int position;
+    private int[] blocks = new int[16];
+    private int size;
+    private byte[] previous = new byte[64];
+    private int previousLength;
+
+    void addIfNew(byte[] form, int length) {
+      if (size == 0 || !Arrays.equals(previous, 0, previousLength, form, 0, length)) {
+        add(form, length);
+      }
+    }
+
+    void add(byte[] form, int length) {
+      if (size % BLOCK_SIZE == 0) {
+        if (size / BLOCK_SIZE == blocks.length) {
+          blocks = Arrays.copyOf(blocks, blocks.length * 2);
+        }
+        blocks[size / BLOCK_SIZE] = position;
+        writeVarInt(length);
+        write(form, 0, length);
+      } else {
+        int prefix = Arrays.mismatch(previous, 0, previousLength, form, 0, length);
+        if (prefix < 0) {
+          prefix = length;
+        }
+        writeVarInt(prefix);
+        writeVarInt(length - prefix);
+        write(form, prefix, length - prefix);
+      }
+      if (previous.length < length) {
+        previous = Arrays.copyOf(previous, Math.max(length, previous.length * 2));
+      }
+      System.arraycopy(form, 0, previous, 0, length);
+      previousLength = length;
+      size++;
+    }
+
+    FrontCodedStringSet finish() {
+      int blockCount = (size + BLOCK_SIZE - 1) / BLOCK_SIZE;
+      return new FrontCodedStringSet(Arrays.copyOf(data, position), Arrays.copyOf(blocks, blockCount), size);
+    }
+
+    private void writeVarInt(int value) {
+      while ((value & ~0x7F) != 0) {
+        writeByte((byte) ((value & 0x7F) | 0x80));
+        value >>>= 7;
+      }
+      writeByte((byte) value);
+    }
+
+    private void writeByte(byte b) {
+      ensureCapacity(1);
+      data[position++] = b;
+    }
+
+    private void write(byte[] bytes, int from, int length) {
+      ensureCapacity(length);
+      System.arraycopy(bytes, from, data, position, length);
+      position += length;
+    }
+
+    private void ensureCapacity(int extra) {
+      if (position + extra > data.length) {
+        data = Arrays.copyOf(data, Math.max(position + extra, data.length * 2));
+      }
+    }
+  }
+}
@@ -0,0 +1,56 @@
+package edu.kpi.lab.model.transform;
+
+/**
+ * Target of an expression renderer. Expression trees describe their text once in terms of these operations and can
+ * then produce either the text itself or its {@link Fingerprint} from the same code.
+ */
+public interface Rendering<T> {
+  Rendering<String> TEXT = new Rendering<>() {
+    @Override
+    public String text(String text) {
+      return text;
+    }
+
+    @Override
+    public String concat(String first, String second) {
+      return first + second;
+    }
+
+    @Override
+    public String concat(String first, String second, String third) {
+      return first + second + third;
+    }
+  };
+
+  Rendering<Fingerprint> FINGERPRINT = new Rendering<>() {
+    private final Fingerprint open = Fingerprint.of("(");
+    private final Fingerprint close = Fingerprint.of(")");
+
+    @Override
+    public Fingerprint text(String text) {
+      return Fingerprint.of(text);
+    }
+
+    @Override
+    public Fingerprint concat(Fingerprint first, Fingerprint second) {
+      return first.concat(second);
+    }
+
+    @Override
+    public Fingerprint bracket(Fingerprint body) {
+      return open.concat(body).concat(close);
+    }
+  };
+
+  T text(String text);
+
+  T concat(T first, T second);
+
+  default T concat(T first, T second, T third) {
+    return concat(concat(first, second), third);
+  }
+
+  default T bracket(T body) {
+    return concat(text("("), body, text(")"));
+  }
+}
@@ -1,245 +1,358 @@
 package edu.kpi.lab.model.transform.associative;
 
+import edu.kpi.lab.model.budget.BudgetedResult;
+import edu.kpi.lab.model.budget.EnumerationBudget;
+import edu.kpi.lab.model.transform.AdmissionPolicy;
+import edu.kpi.lab.model.transform.ExternalFormSet;
+import edu.kpi.lab.model.transform.Fingerprint;
+import edu.kpi.lab.model.transform.FrontCodedStringSet;
 import edu.kpi.lab.model.transform.associative.node.BinaryExpr;
 import edu.kpi.lab.model.transform.associative.node.Expr;
+import edu.kpi.lab.model.transform.associative.node.ExprArena;
+import edu.kpi.lab.model.transform.associative.node.ExprFactory;
 import edu.kpi.lab.model.transform.associative.node.FunctionExpr;
 import edu.kpi.lab.model.transform.associative.node.Literal;
 import edu.kpi.lab.model.transform.associative.node.Parser;
 import edu.kpi.lab.model.transform.associative.node.UnaryExpr;
 import edu.kpi.lab.model.lexical.Token;
-import edu.kpi.lab.model.lexical.TokenType;
+import edu.kpi.lab.model.lexical.TokenBuffer;
+import java.math.BigInteger;
+import java.nio.file.Path;
 import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Random;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class AssociativeTransformer {
+  private static final int ARENA_NODES = 1 << 10;
+
+  private final ExprFactory factory = ExprFactory.shared();
+
+  private final ExprFactory results = factory.withoutInterning();
+
+  private final CommonFactoring factoring = new CommonFactoring(factory);
+
+  private final SubtreeCache subtreeCache;
+
+  private volatile EquivalenceSpace lastSpace;
+
+  /**
+   * A transformer without a subtree cache, so a streamed enumeration holds only the forms it is currently building.
+   */
+  public AssociativeTransformer() {
+    this(SubtreeCache.disabled());
+  }
+
+  /**
+   * Uses {@code subtreeCache} for the equivalents of repeated subtrees; pass the same cache to every transformer of a
+   * batch to share it between them. Cached lists stay on the heap up to the cache's limits.
+   */
+  public AssociativeTransformer(SubtreeCache subtreeCache) {
+    this.subtreeCache = subtreeCache;
+  }
+
+  public SubtreeCache getSubtreeCache() {
+    return subtreeCache;
+  }
 
   public Set<String> generateEquivalentExpressions(List<Token> tokens) {
-    Parser parser = new Parser(tokens);
-    Expr initial = parser.parse();
-    List<Expr> allExprs = getAllEquivalent(initial);
+    return generateEquivalentExpressions(tokens, EnumerationBudget.unlimited()).getValue();
+  }
+
+  /**
+   * Distinct forms produced before the budget ran out, together with the reason enumeration stopped early.
+   */
+  public BudgetedResult<Set<String>> generateEquivalentExpressions(List<Token> tokens, EnumerationBudget budget) {
+    return generateEquivalentExpressions(TokenBuffer.of(tokens), budget);
+  }
+
+  public Set<String> generateEquivalentExpressions(TokenBuffer tokens) {
+    return generateEquivalentExpressions(tokens, EnumerationBudget.unlimited()).getValue();
+  }
+
+  public BudgetedResult<Set<String>> generateEquivalentExpressions(TokenBuffer tokens, EnumerationBudget budget) {
+    Set<Fingerprint> seen = new HashSet<>();
     Set<String> uniqueForms = new HashSet<>();
-    for (Expr e : allExprs) {
-      uniqueForms.add(e.toString());
+    Iterator<Expr> equivalents = iterateEquivalentExpressions(tokens, budget);
+    while (equivalents.hasNext()) {
+      Expr equivalent = equivalents.next();
+      if (seen.add(equivalent.fingerprint())) {
+        uniqueForms.add(equivalent.toString());
+      }
     }
-    return new HashSet<>(uniqueForms);
+    return budget.result(uniqueForms);
   }
 
-  private List<Expr> getAllEquivalent(Expr expr) {
-    List<Expr> results = new ArrayList<>();
-    if (expr instanceof Literal) {
-      results.add(expr);
-    } else if (expr instanceof UnaryExpr u) {
-      List<Expr> subs = getAllEquivalent(u.getOperand());
-      for (Expr s : subs) {
-        results.add(new UnaryExpr(u.getOp(), s));
-      }
-    } else if (expr instanceof FunctionExpr f) {
-      List<Expr> subs = getAllEquivalent(f.getArg());
-      for (Expr s : subs) {
-        results.add(new FunctionExpr(f.getName(), s));
-      }
-    } else if (expr instanceof BinaryExpr b) {
-      List<Expr> lefts = getAllEquivalent(b.getLeft());
-      List<Expr> rights = getAllEquivalent(b.getRight());
-      for (Expr l : lefts) {
-        for (Expr r : rights) {
-          results.add(new BinaryExpr(l, b.getOp(), r));
-        }
-      }
-      String op = b.getOp();
-      if (op.equals("+") || op.equals("-")) {
-        List<Expr> terms = flattenAdd(expr);
-        if (terms.size() > 2) {
-          List<Expr> groupings = generateAll(terms, "+");
-          results.addAll(groupings);
-        }
-        List<Expr> factored = getFactoredVariants(terms, "+");
-        results.addAll(factored);
-      } else
-      if (op.equals("*") || op.equals("/")) {
-        List<Expr> factors = flattenMul(expr);
-        if (factors.size() > 2) {
-          List<Expr> groupings = generateAll(factors, "*");
-          results.addAll(groupings);
+  /**
+   * The same forms as {@link #generateEquivalentExpressions(List)}, sorted and front-coded. Forms are built in an
+   * off-heap arena and only encoded forms are retained, so large results need a fraction of the memory of a
+   * {@code HashSet<String>}.
+   */
+  public FrontCodedStringSet generateCompactEquivalentExpressions(List<Token> tokens) {
+    FrontCodedStringSet.Builder forms = new FrontCodedStringSet.Builder();
+    forEachEquivalentForm(tokens, forms::add);
+    return forms.build();
+  }
+
+  /**
+   * Runs the enumeration only if the policy admits its size. A downgraded request returns the distinct forms among a
+   * fixed-seed sample of {@link AdmissionPolicy#getDowngradedForms()} equivalents.
+   */
+  public Set<String> generateEquivalentExpressions(List<Token> tokens, AdmissionPolicy policy) {
+    BigInteger count = countEquivalentExpressions(tokens);
+    return switch (policy.decide(count)) {
+      case ACCEPT -> generateEquivalentExpressions(tokens);
+      case DOWNGRADE -> {
+        Set<String> sampledForms = new LinkedHashSet<>();
+        for (Expr e : sampleEquivalentExpressions(tokens, policy.getDowngradedForms(), 0)) {
+          sampledForms.add(e.toString());
         }
+        yield sampledForms;
       }
-    }
-    return results;
+      case REJECT -> throw policy.rejection(count);
+    };
   }
 
-  private List<Expr> getFactoredVariants(List<Expr> terms, String op) {
-    if (!op.equals("+")) {
-      return Collections.emptyList();
+  /**
+   * Writes the distinct forms, sorted, to a new file under {@code tempDirectory}. At most {@code maxBufferedForms}
+   * forms are held in memory at any time; larger results are spilled to sorted runs and merged on disk.
+   */
+  public Path spillEquivalentExpressions(List<Token> tokens, Path tempDirectory, int maxBufferedForms) {
+    try (ExternalFormSet forms = new ExternalFormSet(tempDirectory, maxBufferedForms)) {
+      forEachEquivalentForm(tokens, forms::add);
+      return forms.finish();
     }
+  }
 
-    Map<Expr, List<Integer>> factorToIndices = new HashMap<>();
-    for (int i = 0; i < terms.size(); i++) {
-      Expr term = terms.get(i);
-      if (term instanceof UnaryExpr u && u.getOp().equals("-")) {
-        term = u.getOperand();
-      }
-      List<Expr> factors = flattenMul(term);
-      for (Expr f : factors) {
-        factorToIndices.computeIfAbsent(f, k -> new ArrayList<>()).add(i);
+  /**
+   * Hands the text of every form, in rank order and duplicates included, to {@code action}. Forms are built as
+   * handles in an off-heap {@link ExprArena} that is reset after each of them and released when the call returns, so
+   * the only heap objects per form are its string. Arena ranks are {@code long}s; a space with more forms than that is
+   * walked with {@link #iterateEquivalentExpressions(List)} instead, in the same order.
+   */
+  public void forEachEquivalentForm(List<Token> tokens, Consumer<String> action) {
+    EquivalenceSpace space = space(tokens);
+    if (space.size().bitLength() >= Long.SIZE) {
+      iterateEquivalentExpressions(tokens).forEachRemaining(equivalent -> action.accept(equivalent.toString()));
+      return;
+    }
+    long size = space.size().longValueExact();
+    StringBuilder text = new StringBuilder();
+    try (ExprArena arena = new ExprArena(ARENA_NODES)) {
+      int mark = arena.mark();
+      for (long rank = 0; rank < size; rank++) {
+        text.setLength(0);
+        arena.render(space.unrank(arena, rank), text);
+        arena.reset(mark);
+        action.accept(text.toString());
       }
     }
+  }
 
-    List<Expr> variants = new ArrayList<>();
-    for (Map.Entry<Expr, List<Integer>> entry : factorToIndices.entrySet()) {
-      List<Integer> group = entry.getValue();
-      if (group.size() < 2) {
-        continue;
-      }
-      Expr common = entry.getKey();
-      if (common instanceof Literal l && l.getValue().equals("1")) {
-        continue;
-      }
+  /**
+   * Exact number of forms the enumeration produces, duplicates included, computed without building any of them.
+   */
+  public BigInteger countEquivalentExpressions(List<Token> tokens) {
+    return space(tokens).size();
+  }
 
-      Set<Integer> grouped = new HashSet<>(group);
-      List<Expr> newTerms = new ArrayList<>();
-      for (int i = 0; i < terms.size(); i++) {
-        if (!grouped.contains(i)) {
-          newTerms.add(terms.get(i));
-        }
-      }
+  /**
+   * Same count, with the search for common factors limited by {@code budget}. A truncated count is a lower bound.
+   */
+  public BudgetedResult<BigInteger> countEquivalentExpressions(List<Token> tokens, EnumerationBudget budget) {
+    Parser parser = new Parser(tokens, factory);
+    return budget.result(new EquivalenceSpace(parser.parse(), factory, factoring, budget).size());
+  }
 
-      List<Expr> sumTerms = new ArrayList<>();
-      for (int i : group) {
-        Expr term = terms.get(i);
-        Expr quotient = divide(term, common);
-        sumTerms.add(quotient);
-      }
+  public Stream<Expr> streamEquivalentExpressions(List<Token> tokens) {
+    Iterator<Expr> equivalents = iterateEquivalentExpressions(tokens);
+    return StreamSupport.stream(
+      Spliterators.spliteratorUnknownSize(equivalents, Spliterator.ORDERED | Spliterator.NONNULL), false);
+  }
 
-      Expr sum = buildAdd(sumTerms);
-      Expr factored = new BinaryExpr(common, "*", sum);
-      newTerms.add(factored);
+  /**
+   * Same sequence as {@link #iterateEquivalentExpressions(List)}, but every element is built from its rank, so the
+   * spliterator splits into equal contiguous ranges for parallel streams.
+   */
+  public Spliterator<Expr> spliterateEquivalentExpressions(List<Token> tokens) {
+    return new EquivalenceSpliterator(space(tokens));
+  }
 
-      Expr newExpr = buildAdd(newTerms);
-      variants.add(newExpr);
-    }
-    return variants;
+  public Stream<Expr> parallelStreamEquivalentExpressions(List<Token> tokens) {
+    return StreamSupport.stream(spliterateEquivalentExpressions(tokens), true);
   }
 
-  private Expr divide(Expr term, Expr divisor) {
-    boolean negative = false;
-    if (term instanceof UnaryExpr u && u.getOp().equals("-")) {
-      negative = true;
-      term = u.getOperand();
+  /**
+   * Draws {@code count} independent, uniformly distributed equivalents. Forms that the full enumeration produces
+   * several times are proportionally more likely. The cost depends on the count and the size of the expression, not
+   * on the number of equivalents.
+   */
+  public List<Expr> sampleEquivalentExpressions(List<Token> tokens, int count, long seed) {
+    EquivalenceSpace space = space(tokens);
+    Random random = new Random(seed);
+    List<Expr> samples = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      samples.add(space.sample(random));
     }
-    List<Expr> factors = flattenMul(term);
-    int index = -1;
-    for (int j = 0; j < factors.size(); j++) {
-      if (factors.get(j).equals(divisor)) {
-        index = j;
-        break;
-      }
-    }
-    if (index == -1) {
-      return null;
-    }
-    factors.remove(index);
-    Expr quotient = buildMul(factors);
-    if (negative) {
-      quotient = new UnaryExpr("-", quotient);
-    }
-    return quotient;
+    return samples;
   }
 
-  private Expr buildAdd(List<Expr> terms) {
-    if (terms.isEmpty()) {
-      return new Literal("0", TokenType.INTEGER);
+  /**
+   * Up to {@code pageSize} distinct forms following {@code cursor} in the rank order of
+   * {@link #iterateEquivalentExpressions(List)}; pass {@code null} for the first page and
+   * {@link EquivalencePage#getNextCursor()} for each following one. Forms are distinct within a page; a form that the
+   * enumeration produces more than once may appear again on a later page. Resuming starts building forms directly at
+   * the cursor's rank, and the space of the expression is only measured again when the cursor's expression changes.
+   */
+  public EquivalencePage pageEquivalentExpressions(List<Token> tokens, String cursor, int pageSize) {
+    if (pageSize < 1) {
+      throw new IllegalArgumentException("A page must hold at least one form");
     }
-    Expr res = terms.getFirst();
-    for (int i = 1; i < terms.size(); i++) {
-      Expr right = terms.get(i);
-      if (right instanceof UnaryExpr u && u.getOp().equals("-")) {
-        res = new BinaryExpr(res, "-", u.getOperand());
-      } else {
-        res = new BinaryExpr(res, "+", right);
+    Parser parser = new Parser(tokens, factory);
+    Expr initial = parser.parse();
+    EquivalenceSpace space = space(initial);
+    BigInteger rank = PageCursor.decode(cursor, space.getStructure());
+    if (rank.compareTo(space.size()) > 0) {
+      throw new IllegalArgumentException("Cursor is past the last equivalent");
+    }
+
+    Set<Fingerprint> seen = new HashSet<>();
+    List<String> forms = new ArrayList<>(pageSize);
+    while (forms.size() < pageSize && rank.compareTo(space.size()) < 0) {
+      Expr equivalent = space.unrank(rank);
+      rank = rank.add(BigInteger.ONE);
+      if (seen.add(equivalent.fingerprint())) {
+        forms.add(equivalent.toString());
       }
     }
-    return res;
+    String nextCursor = rank.compareTo(space.size()) < 0 ? PageCursor.encode(space.getStructure(), rank) : null;
+    return new EquivalencePage(forms, nextCursor);
   }
 
-  private Expr buildMul(List<Expr> factors) {
-    if (factors.isEmpty()) {
-      return new Literal("1", TokenType.INTEGER);
+  /**
+   * The {@code k} distinct forms with the shortest critical path under {@code costModel}, cheapest first. Forms of
+   * equal cost come in the order the search finds them, not necessarily in enumeration order. Only candidates that
+   * can still beat the current {@code k}-th best are built, so the search never materialises the full enumeration.
+   */
+  public List<Expr> topK(List<Token> tokens, CostModel costModel, int k) {
+    if (k < 1) {
+      throw new IllegalArgumentException("At least one form must be requested");
     }
-    Expr res = factors.getFirst();
-    for (int i = 1; i < factors.size(); i++) {
-      Expr right = factors.get(i);
-      if (right instanceof UnaryExpr u && u.getOp().equals("/")) {
-        res = new BinaryExpr(res, "/", u.getOperand());
-      } else {
-        res = new BinaryExpr(res, "*", right);
-      }
+    Parser parser = new Parser(tokens, factory);
+    return new TopKSearch(costModel, k, factory, factoring).search(parser.parse());
+  }
+
+  /**
+   * The {@code shard}-th of {@code shardCount} disjoint contiguous rank ranges of the enumeration. Shards depend only on
+   * the tokens and the shard count, so the same shard can be recomputed anywhere and always yields the same forms.
+   */
+  public Stream<Expr> streamShard(List<Token> tokens, int shard, int shardCount) {
+    if (shard < 0 || shard >= shardCount) {
+      throw new IllegalArgumentException("Shard " + shard + " is outside of [0; " + shardCount + ")");
     }
-    return res;
+    EquivalenceSpace space = space(tokens);
+    BigInteger count = BigInteger.valueOf(shardCount);
+    BigInteger from = space.size().multiply(BigInteger.valueOf(shard)).divide(count);
+    BigInteger to = space.size().multiply(BigInteger.valueOf(shard + 1L)).divide(count);
+    return StreamSupport.stream(new EquivalenceSpliterator(space, from, to), false);
   }
 
-  private List<Expr> flattenAdd(Expr expr) {
-    List<Expr> terms = new ArrayList<>();
-    flattenAddHelper(expr, terms, true);
-    return terms;
+  public Iterator<Expr> iterateEquivalentExpressions(List<Token> tokens) {
+    return iterateEquivalentExpressions(tokens, EnumerationBudget.unlimited());
   }
 
-  private void flattenAddHelper(Expr expr, List<Expr> terms, boolean positive) {
-    if (expr instanceof BinaryExpr b) {
-      if (b.getOp().equals("+")) {
-        flattenAddHelper(b.getLeft(), terms, positive);
-        flattenAddHelper(b.getRight(), terms, positive);
-        return;
-      } else if (b.getOp().equals("-")) {
-        flattenAddHelper(b.getLeft(), terms, positive);
-        flattenAddHelper(b.getRight(), terms, !positive);
-        return;
-      }
-    }
-    terms.add(positive ? expr : new UnaryExpr("-", expr));
+  /**
+   * Ends as soon as the budget is exhausted; {@link EnumerationBudget#getTruncationReason()} tells why.
+   */
+  public Iterator<Expr> iterateEquivalentExpressions(List<Token> tokens, EnumerationBudget budget) {
+    return iterateEquivalentExpressions(TokenBuffer.of(tokens), budget);
   }
 
-  private List<Expr> flattenMul(Expr expr) {
-    List<Expr> factors = new ArrayList<>();
-    flattenMulHelper(expr, factors, true);
-    return factors;
+  /**
+   * Parses {@code tokens} in place, without creating {@link Token} objects.
+   */
+  public Iterator<Expr> iterateEquivalentExpressions(TokenBuffer tokens, EnumerationBudget budget) {
+    Parser parser = new Parser(tokens, factory);
+    Expr initial = parser.parse();
+    return LazyIterators.admitted(getAllEquivalent(initial, budget), budget::tryConsumeResult);
   }
 
-  private void flattenMulHelper(Expr expr, List<Expr> factors, boolean multiplier) {
-    if (expr instanceof BinaryExpr b) {
-      if (b.getOp().equals("*")) {
-        flattenMulHelper(b.getLeft(), factors, multiplier);
-        flattenMulHelper(b.getRight(), factors, multiplier);
-        return;
-      } else if (b.getOp().equals("/")) {
-        flattenMulHelper(b.getLeft(), factors, multiplier);
-        flattenMulHelper(b.getRight(), factors, !multiplier);
-        return;
-      }
+  private EquivalenceSpace space(List<Token> tokens) {
+    Parser parser = new Parser(tokens, factory);
+    return space(parser.parse());
+  }
+
+  /**
+   * The space of {@code root}. The last space built is kept and reused for as long as requests come for the same tree,
+   * as they do while a client pages or samples through one expression. Parsed trees are interned, so comparing roots is
+   * cheap; trees that only render to the same text get spaces of their own.
+   */
+  private EquivalenceSpace space(Expr root) {
+    EquivalenceSpace space = lastSpace;
+    if (space == null || !space.getRoot().equals(root)) {
+      space = new EquivalenceSpace(root, factory, factoring);
+      lastSpace = space;
     }
-    factors.add(multiplier ? expr : new UnaryExpr("/", expr));
+    return space;
   }
 
-  private List<Expr> generateAll(List<Expr> items, String op) {
-    int n = items.size();
-    if (n == 1) {
-      return List.of(items.getFirst());
+  private Iterator<Expr> getAllEquivalent(Expr expr, EnumerationBudget budget) {
+    if (expr instanceof Literal) {
+      return LazyIterators.single(expr);
     }
-    List<Expr> result = new ArrayList<>();
-    for (int i = 1; i < n; i++) {
-      List<Expr> lefts = generateAll(items.subList(0, i), op);
-      List<Expr> rights = generateAll(items.subList(i, n), op);
-      for (Expr left : lefts) {
-        for (Expr right : rights) {
-          result.add(new BinaryExpr(left, op, right));
+    List<Expr> cached = subtreeCache.get(expr);
+    if (cached != null) {
+      return cached.iterator();
+    }
+    return subtreeCache.recording(expr, generateAllEquivalent(expr, budget), budget);
+  }
+
+  private Iterator<Expr> generateAllEquivalent(Expr expr, EnumerationBudget budget) {
+    if (expr instanceof UnaryExpr u) {
+      return LazyIterators.map(getAllEquivalent(u.getOperand(), budget), s -> {
+        budget.allocateNode();
+        return results.unary(u.getOp(), s);
+      });
+    } else if (expr instanceof FunctionExpr f) {
+      return LazyIterators.map(getAllEquivalent(f.getArg(), budget), s -> {
+        budget.allocateNode();
+        return results.function(f.getName(), s);
+      });
+    } else if (expr instanceof BinaryExpr b) {
+      List<Supplier<Iterator<Expr>>> parts = new ArrayList<>();
+      parts.add(() -> LazyIterators.product(
+        () -> getAllEquivalent(b.getLeft(), budget),
+        () -> getAllEquivalent(b.getRight(), budget),
+        (l, r) -> {
+          budget.allocateNode();
+          return results.binary(l, b.getOp(), r);
+        }));
+      String op = b.getOp();
+      if (op.equals("+") || op.equals("-")) {
+        List<Expr> terms = factory.flattenAdd(expr);
+        if (terms.size() > 2) {
+          IntervalGroupings groupings = new IntervalGroupings(terms, "+", results);
+          parts.add(() -> groupings.iterate(budget));
+        }
+        parts.add(() -> factoring.variants(terms, budget).iterator());
+      } else if (op.equals("*") || op.equals("/")) {
+        List<Expr> factors = factory.flattenMul(expr);
+        if (factors.size() > 2) {
+          IntervalGroupings groupings = new IntervalGroupings(factors, "*", results);
+          parts.add(() -> groupings.iterate(budget));
         }
       }
+      return LazyIterators.concat(parts);
     }
-    return result;
+    return LazyIterators.single(expr);
   }
 }
-
@@ -0,0 +1,250 @@
+package edu.kpi.lab.model.transform.associative;
+
+import edu.kpi.lab.model.budget.EnumerationBudget;
+import edu.kpi.lab.model.lexical.TokenType;
+import edu.kpi.lab.model.transform.associative.node.Expr;
+import edu.kpi.lab.model.transform.associative.node.ExprFactory;
+import edu.kpi.lab.model.transform.associative.node.Literal;
+import edu.kpi.lab.model.transform.associative.node.UnaryExpr;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Pulls common factors out of the terms of a sum, e.g. {@code a*b+a*c} into {@code a*(b+c)}. Every factor is indexed
+ * by the set of terms it occurs in; single shared factors come first, in the order in which they first occur, followed
+ * by every maximal set of factors shared by the same group of terms, e.g. {@code a*b*c+a*b*d} into {@code a*b*(c+d)}.
+ */
+class CommonFactoring {
+  private final ExprFactory factory;
+
+  CommonFactoring(ExprFactory factory) {
+    this.factory = factory;
+  }
+
+  /**
+   * Stops early with the variants found so far once the budget is exhausted.
+   */
+  List<Expr> variants(List<Expr> terms, EnumerationBudget budget) {
+    List<Expr> variants = new ArrayList<>();
+    for (Extraction extraction : extractions(terms, budget)) {
+      if (budget.isExhausted()) {
+        return variants;
+      }
+      variants.add(extract(terms, extraction.group, extraction.commons));
+    }
+    return variants;
+  }
+
+  /**
+   * Number of {@link #variants} of {@code terms}, found without building any of them.
+   */
+  int count(List<Expr> terms, EnumerationBudget budget) {
+    return extractions(terms, budget).size();
+  }
+
+  /**
+   * Length of the shortest prefix of {@code terms} in which two terms share a factor, or {@link Integer#MAX_VALUE} if
+   * there is none. Shorter prefixes have no variants, so a chain's prefixes need not be counted one by one.
+   */
+  int sharedPrefixLength(List<Expr> terms) {
+    Map<Expr, Integer> firstTerms = new HashMap<>();
+    for (int i = 0; i < terms.size(); i++) {
+      for (Expr f : factory.flattenMul(unsigned(terms.get(i)))) {
+        Integer first = isOne(f) ? null : firstTerms.putIfAbsent(f, i);
+        if (first != null && first != i) {
+          return i + 1;
+        }
+      }
+    }
+    return Integer.MAX_VALUE;
+  }
+
+  /**
+   * The terms and the factors pulled out of them for every variant, in the order of {@link #variants}.
+   */
+  private List<Extraction> extractions(List<Expr> terms, EnumerationBudget budget) {
+    // last term each factor was seen in and the number of terms it occurs in; only shared factors get a bitset
+    Map<Expr, int[]> frequencies = new LinkedHashMap<>();
+    for (int i = 0; i < terms.size(); i++) {
+      for (Expr f : factory.flattenMul(unsigned(terms.get(i)))) {
+        int[] frequency = frequencies.computeIfAbsent(f, k -> new int[] {-1, 0});
+        if (frequency[0] != i) {
+          frequency[0] = i;
+          frequency[1]++;
+        }
+      }
+    }
+
+    List<Expr> shared = new ArrayList<>();
+    for (Map.Entry<Expr, int[]> entry : frequencies.entrySet()) {
+      Expr factor = entry.getKey();
+      if (entry.getValue()[1] >= 2 && !isOne(factor)) {
+        shared.add(factor);
+      }
+    }
+    if (shared.isEmpty()) {
+      return List.of();
+    }
+
+    Map<Expr, BitSet> occurrences = new HashMap<>();
+    for (Expr factor : shared) {
+      occurrences.put(factor, new BitSet(terms.size()));
+    }
+    for (int i = 0; i < terms.size(); i++) {
+      for (Expr f : factory.flattenMul(unsigned(terms.get(i)))) {
+        BitSet occurrence = occurrences.get(f);
+        if (occurrence != null) {
+          occurrence.set(i);
+        }
+      }
+    }
+
+    List<Extraction> extractions = new ArrayList<>();
+    for (Expr common : shared) {
+      extractions.add(new Extraction(occurrences.get(common), List.of(common)));
+    }
+
+    for (BitSet group : closedGroups(shared, occurrences, budget)) {
+      if (budget.isExhausted()) {
+        return extractions;
+      }
+      List<Expr> commons = new ArrayList<>();
+      for (Expr factor : shared) {
+        if (covers(occurrences.get(factor), group)) {
+          commons.add(factor);
+        }
+      }
+      if (commons.size() >= 2) {
+        extractions.add(new Extraction(group, commons));
+      }
+    }
+    return extractions;
+  }
+
+  /**
+   * Groups of at least two terms that are exactly the terms containing some set of factors: the occurrence sets of
+   * the shared factors and all their intersections.
+   */
+  private List<BitSet> closedGroups(List<Expr> shared, Map<Expr, BitSet> occurrences, EnumerationBudget budget) {
+    Set<BitSet> seen = new HashSet<>();
+    List<BitSet> groups = new ArrayList<>();
+    Deque<BitSet> pending = new ArrayDeque<>();
+    for (Expr factor : shared) {
+      pending.add(occurrences.get(factor));
+    }
+    while (!pending.isEmpty() && !budget.isExhausted()) {
+      BitSet group = pending.poll();
+      if (!seen.add(group)) {
+        continue;
+      }
+      for (int i = 0, known = groups.size(); i < known; i++) {
+        BitSet meet = (BitSet) group.clone();
+        meet.and(groups.get(i));
+        if (meet.cardinality() >= 2 && !seen.contains(meet)) {
+          pending.add(meet);
+        }
+      }
+      groups.add(group);
+    }
+    return groups;
+  }
+
+  private static boolean covers(BitSet occurrences, BitSet group) {
+    BitSet uncovered = (BitSet) group.clone();
+    uncovered.andNot(occurrences);
+    return uncovered.isEmpty();
+  }
+
+  private Expr extract(List<Expr> terms, BitSet group, List<Expr> commons) {
+    List<Expr> newTerms = new ArrayList<>();
+    for (int i = group.nextClearBit(0); i < terms.size(); i = group.nextClearBit(i + 1)) {
+      newTerms.add(terms.get(i));
+    }
+
+    List<Expr> sumTerms = new ArrayList<>();
+    for (int i = group.nextSetBit(0); i >= 0; i = group.nextSetBit(i + 1)) {
+      sumTerms.add(divide(terms.get(i), commons));
+    }
+
+    Expr sum = buildAdd(sumTerms);
+    Expr factored = factory.binary(buildMul(commons), "*", sum);
+    newTerms.add(factored);
+
+    return buildAdd(newTerms);
+  }
+
+  private static boolean isOne(Expr factor) {
+    return factor instanceof Literal l && l.getValue().equals("1");
+  }
+
+  private static Expr unsigned(Expr term) {
+    if (term instanceof UnaryExpr u && u.getOp().equals("-")) {
+      return u.getOperand();
+    }
+    return term;
+  }
+
+  private Expr divide(Expr term, List<Expr> divisors) {
+    boolean negative = term != unsigned(term);
+    List<Expr> factors = new ArrayList<>(factory.flattenMul(unsigned(term)));
+    for (Expr divisor : divisors) {
+      factors.remove(divisor);
+    }
+    Expr quotient = buildMul(factors);
+    if (negative) {
+      quotient = factory.unary("-", quotient);
+    }
+    return quotient;
+  }
+
+  private Expr buildAdd(List<Expr> terms) {
+    if (terms.isEmpty()) {
+      return factory.literal("0", TokenType.INTEGER);
+    }
+    Expr res = terms.getFirst();
+    for (int i = 1; i < terms.size(); i++) {
+      Expr right = terms.get(i);
+      if (right instanceof UnaryExpr u && u.getOp().equals("-")) {
+        res = factory.binary(res, "-", u.getOperand());
+      } else {
+        res = factory.binary(res, "+", right);
+      }
+    }
+    return res;
+  }
+
+  private Expr buildMul(List<Expr> factors) {
+    if (factors.isEmpty()) {
+      return factory.literal("1", TokenType.INTEGER);
+    }
+    Expr res = factors.getFirst();
+    for (int i = 1; i < factors.size(); i++) {
+      Expr right = factors.get(i);
+      if (right instanceof UnaryExpr u && u.getOp().equals("/")) {
+        res = factory.binary(res, "/", u.getOperand());
+      } else {
+        res = factory.binary(res, "*", right);
+      }
+    }
+    return res;
+  }
+
+  private static final class Extraction {
+    private final BitSet group;
+
+    private final List<Expr> commons;
+
+    private Extraction(BitSet group, List<Expr> commons) {
+      this.group = group;
+      this.commons = commons;
+    }
+  }
+}
@@ -0,0 +1,63 @@
+package edu.kpi.lab.model.transform.associative;
+
+import edu.kpi.lab.model.transform.associative.node.BinaryExpr;
+import edu.kpi.lab.model.transform.associative.node.Expr;
+import edu.kpi.lab.model.transform.associative.node.FunctionExpr;
+import edu.kpi.lab.model.transform.associative.node.UnaryExpr;
+import java.util.Map;
+
+/**
+ * Per-operation latencies used to score a form by the length of its critical path: an operation can start once both
+ * of its operands are ready, so a node costs its own latency plus the slower of its operands. Additions of a negated
+ * operand and multiplications by a reciprocal are scored as the subtraction or division they are rendered as.
+ */
+public interface CostModel {
+
+  double operatorCost(String op);
+
+  default double functionCost(String name) {
+    return 0;
+  }
+
+  default double leafCost() {
+    return 0;
+  }
+
+  /**
+   * Every operation takes one step, so the cost is the height of the operation tree.
+   */
+  static CostModel height() {
+    return op -> 1;
+  }
+
+  static CostModel latency(Map<String, Double> operatorCosts) {
+    return op -> operatorCosts.getOrDefault(op, 1.0);
+  }
+
+  default double cost(Expr expr) {
+    if (expr instanceof UnaryExpr u) {
+      return operatorCost(u.getOp()) + cost(u.getOperand());
+    } else if (expr instanceof FunctionExpr f) {
+      return functionCost(f.getName()) + cost(f.getArg());
+    } else if (expr instanceof BinaryExpr b) {
+      return binaryCost(b, cost(b.getLeft()), cost(b.getRight()));
+    }
+    return leafCost();
+  }
+
+  /**
+   * Cost of {@code b} given the already known costs of its two operands.
+   */
+  default double binaryCost(BinaryExpr b, double leftCost, double rightCost) {
+    String op = b.getOp();
+    String inverse = op.equals("+") ? "-" : op.equals("*") ? "/" : null;
+    if (inverse != null) {
+      if (b.getRight() instanceof UnaryExpr u && u.getOp().equals(inverse)) {
+        return operatorCost(inverse) + Math.max(leftCost, rightCost - operatorCost(inverse));
+      } else if (b.getLeft() instanceof UnaryExpr u && u.getOp().equals(inverse)) {
+        return operatorCost(inverse) + Math.max(rightCost, leftCost - operatorCost(inverse));
+      }
+    }
+    return operatorCost(op) + Math.max(leftCost, rightCost);
+  }
+}
@@ -0,0 +1,20 @@
+package edu.kpi.lab.model.transform.associative;
+
+import java.util.List;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+
+/**
+ * One page of equivalents in rank order and the cursor of the page after it, or {@code null} after the last page.
+ */
+@Getter
+@AllArgsConstructor
+public class EquivalencePage {
+  private final List<String> forms;
+
+  private final String nextCursor;
+
+  public boolean hasNext() {
+    return nextCursor != null;
+  }
+}
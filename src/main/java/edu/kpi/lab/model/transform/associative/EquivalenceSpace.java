@@ -0,0 +1,300 @@
+package edu.kpi.lab.model.transform.associative;
+
+import edu.kpi.lab.model.budget.EnumerationBudget;
+import edu.kpi.lab.model.transform.Fingerprint;
+import edu.kpi.lab.model.transform.associative.node.BinaryExpr;
+import edu.kpi.lab.model.transform.associative.node.Expr;
+import edu.kpi.lab.model.transform.associative.node.ExprArena;
+import edu.kpi.lab.model.transform.associative.node.ExprFactory;
+import edu.kpi.lab.model.transform.associative.node.FunctionExpr;
+import edu.kpi.lab.model.transform.associative.node.Literal;
+import edu.kpi.lab.model.transform.associative.node.UnaryExpr;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The equivalents of one expression, indexed in the order {@link AssociativeTransformer} enumerates them. Sizes of
+ * every sub-space are computed once up front, without building any equivalent, after which any rank can be turned
+ * into its expression independently of all others. Groupings and common-factor variants of a chain are only built
+ * when a rank first falls into them. The space can be unranked from several threads at once.
+ */
+class EquivalenceSpace {
+  private final ExprFactory factory;
+
+  private final ExprFactory results;
+
+  private final CommonFactoring factoring;
+
+  private final Expr root;
+
+  private final Map<Expr, BigInteger> sizes = new HashMap<>();
+
+  /**
+   * Items of every chain node, as a prefix of the items of the chain it was measured in.
+   */
+  private final Map<Expr, List<Expr>> chains = new HashMap<>();
+
+  private Fingerprint structure;
+
+  private final Map<Expr, IntervalGroupings> groupings = new ConcurrentHashMap<>();
+
+  private final Map<Expr, List<Expr>> factored = new ConcurrentHashMap<>();
+
+  EquivalenceSpace(Expr root, ExprFactory factory, CommonFactoring factoring) {
+    this(root, factory, factoring, EnumerationBudget.unlimited());
+  }
+
+  /**
+   * Looks for common factors under {@code budget}. Once it is exhausted, sums contribute only the variants found so
+   * far and {@link #size()} is a lower bound.
+   */
+  EquivalenceSpace(Expr root, ExprFactory factory, CommonFactoring factoring, EnumerationBudget budget) {
+    this.factory = factory;
+    this.results = factory.withoutInterning();
+    this.factoring = factoring;
+    this.root = root;
+    measure(root, budget);
+  }
+
+  Expr getRoot() {
+    return root;
+  }
+
+  /**
+   * Fingerprint of the root's tree rather than of its text, so trees that render alike, such as the parses of
+   * {@code -(a+b)+c} and {@code c-(a+b)}, are told apart.
+   */
+  Fingerprint getStructure() {
+    Fingerprint f = structure;
+    if (f == null) {
+      f = structureOf(root);
+      structure = f;
+    }
+    return f;
+  }
+
+  BigInteger size() {
+    return sizes.get(root);
+  }
+
+  Expr unrank(BigInteger rank) {
+    if (rank.signum() < 0 || rank.compareTo(size()) >= 0) {
+      throw new IndexOutOfBoundsException("Rank " + rank + " is outside of [0; " + size() + ")");
+    }
+    return unrank(root, rank);
+  }
+
+  /**
+   * Builds the element at {@code rank} in {@code arena} and returns its handle. Ranks are {@code long} here: a space
+   * with more elements could not be enumerated anyway, and sizes of all sub-spaces are bounded by the space's size.
+   */
+  int unrank(ExprArena arena, long rank) {
+    if (rank < 0 || rank >= size().longValueExact()) {
+      throw new IndexOutOfBoundsException("Rank " + rank + " is outside of [0; " + size() + ")");
+    }
+    return unrank(arena, root, rank);
+  }
+
+  /**
+   * A uniformly distributed element of the space. Drawing a uniform rank and unranking it is the same as descending
+   * the expression and picking every branch with probability proportional to the size of its sub-space.
+   */
+  Expr sample(Random random) {
+    BigInteger size = size();
+    BigInteger rank;
+    do {
+      rank = new BigInteger(size.bitLength(), random);
+    } while (rank.compareTo(size) >= 0);
+    return unrank(root, rank);
+  }
+
+  private BigInteger measure(Expr expr, EnumerationBudget budget) {
+    BigInteger known = sizes.get(expr);
+    if (known != null) {
+      return known;
+    }
+
+    BigInteger size = BigInteger.ONE;
+    if (expr instanceof UnaryExpr u) {
+      size = measure(u.getOperand(), budget);
+    } else if (expr instanceof FunctionExpr f) {
+      size = measure(f.getArg(), budget);
+    } else if (expr instanceof BinaryExpr b) {
+      return measureChain(b, budget);
+    }
+    sizes.put(expr, size);
+    return size;
+  }
+
+  /**
+   * Sizes of a {@code +}/{@code -} or {@code *}/{@code /} chain and of every prefix of it along the left spine. The
+   * chain is flattened once: the items of a prefix are a prefix of the chain's items, the number of groupings of a
+   * prefix only depends on its length, and common factors are only counted in prefixes long enough to share one. The
+   * spine is walked without recursion.
+   */
+  private BigInteger measureChain(BinaryExpr chain, EnumerationBudget budget) {
+    boolean sum = isSum(chain.getOp());
+    List<BinaryExpr> spine = new ArrayList<>();
+    Expr node = chain;
+    while (node instanceof BinaryExpr b && isSum(b.getOp()) == sum && !sizes.containsKey(b)) {
+      spine.add(b);
+      node = b.getLeft();
+    }
+
+    List<Expr> items = sum ? factory.flattenAdd(chain) : factory.flattenMul(chain);
+    int[] lengths = new int[spine.size()];
+    int length = items.size();
+    for (int i = 0; i < spine.size(); i++) {
+      lengths[i] = length;
+      length -= countItems(spine.get(i).getRight(), sum);
+    }
+
+    int sharedLength = sum ? factoring.sharedPrefixLength(items) : Integer.MAX_VALUE;
+    BigInteger size = measure(node, budget);
+    for (int i = spine.size() - 1; i >= 0; i--) {
+      BinaryExpr b = spine.get(i);
+      List<Expr> prefix = items.subList(0, lengths[i]);
+      size = size.multiply(measure(b.getRight(), budget));
+      if (prefix.size() > 2) {
+        size = size.add(IntervalGroupings.count(prefix.size()));
+      }
+      if (prefix.size() >= sharedLength) {
+        size = size.add(BigInteger.valueOf(factoring.count(prefix, budget)));
+      }
+      chains.put(b, prefix);
+      sizes.put(b, size);
+    }
+    return size;
+  }
+
+  /**
+   * Number of items {@code expr} adds to a sum, or to a product if {@code sum} is {@code false}.
+   */
+  private static int countItems(Expr expr, boolean sum) {
+    int count = 0;
+    Deque<Expr> pending = new ArrayDeque<>();
+    pending.push(expr);
+    while (!pending.isEmpty()) {
+      Expr current = pending.pop();
+      if (current instanceof BinaryExpr b && isSum(b.getOp()) == sum) {
+        pending.push(b.getRight());
+        pending.push(b.getLeft());
+      } else {
+        count++;
+      }
+    }
+    return count;
+  }
+
+  private static boolean isSum(String op) {
+    return op.equals("+") || op.equals("-");
+  }
+
+  /**
+   * Groupings of the chain at {@code chain}, or {@code null} if it has no more than two items. Built on first use,
+   * since most spaces are only counted.
+   */
+  private IntervalGroupings groupings(BinaryExpr chain) {
+    List<Expr> items = chains.get(chain);
+    if (items.size() <= 2) {
+      return null;
+    }
+    return groupings.computeIfAbsent(chain,
+      k -> new IntervalGroupings(items, isSum(chain.getOp()) ? "+" : "*", results));
+  }
+
+  private List<Expr> factored(BinaryExpr chain) {
+    return factored.computeIfAbsent(chain, k -> factoring.variants(chains.get(chain), EnumerationBudget.unlimited()));
+  }
+
+  private Expr unrank(Expr expr, BigInteger rank) {
+    if (expr instanceof UnaryExpr u) {
+      return results.unary(u.getOp(), unrank(u.getOperand(), rank));
+    } else if (expr instanceof FunctionExpr f) {
+      return results.function(f.getName(), unrank(f.getArg(), rank));
+    } else if (expr instanceof BinaryExpr b) {
+      BigInteger rightSize = sizes.get(b.getRight());
+      BigInteger products = sizes.get(b.getLeft()).multiply(rightSize);
+      if (rank.compareTo(products) < 0) {
+        BigInteger[] position = rank.divideAndRemainder(rightSize);
+        return results.binary(unrank(b.getLeft(), position[0]), b.getOp(), unrank(b.getRight(), position[1]));
+      }
+      rank = rank.subtract(products);
+
+      IntervalGroupings chain = groupings(b);
+      if (chain != null) {
+        if (rank.compareTo(chain.count()) < 0) {
+          return chain.unrank(rank);
+        }
+        rank = rank.subtract(chain.count());
+      }
+      return factored(b).get(rank.intValueExact());
+    }
+    return expr;
+  }
+
+  private int unrank(ExprArena arena, Expr expr, long rank) {
+    if (expr instanceof UnaryExpr u) {
+      return arena.unary(u.getOp(), unrank(arena, u.getOperand(), rank));
+    } else if (expr instanceof FunctionExpr f) {
+      return arena.function(f.getName(), unrank(arena, f.getArg(), rank));
+    } else if (expr instanceof BinaryExpr b) {
+      long rightSize = sizes.get(b.getRight()).longValue();
+      long products = sizes.get(b.getLeft()).longValue() * rightSize;
+      if (rank < products) {
+        int left = unrank(arena, b.getLeft(), rank / rightSize);
+        return arena.binary(left, b.getOp(), unrank(arena, b.getRight(), rank % rightSize));
+      }
+      rank -= products;
+
+      IntervalGroupings chain = groupings(b);
+      if (chain != null) {
+        long count = chain.count().longValue();
+        if (rank < count) {
+          return chain.unrank(arena, rank);
+        }
+        rank -= count;
+      }
+      return arena.external(factored(b).get(Math.toIntExact(rank)));
+    }
+    return arena.external(expr);
+  }
+
+  /**
+   * Fingerprint of {@code root} written in prefix form, every node as its kind followed by its length-prefixed fields.
+   */
+  private static Fingerprint structureOf(Expr root) {
+    StringBuilder text = new StringBuilder();
+    Deque<Expr> pending = new ArrayDeque<>();
+    pending.push(root);
+    while (!pending.isEmpty()) {
+      Expr expr = pending.pop();
+      if (expr instanceof BinaryExpr b) {
+        appendField(text.append('B'), b.getOp());
+        pending.push(b.getRight());
+        pending.push(b.getLeft());
+      } else if (expr instanceof UnaryExpr u) {
+        appendField(text.append('U'), u.getOp());
+        pending.push(u.getOperand());
+      } else if (expr instanceof FunctionExpr f) {
+        appendField(text.append('F'), f.getName());
+        pending.push(f.getArg());
+      } else {
+        Literal literal = (Literal) expr;
+        appendField(text.append('L').append(literal.getType().ordinal()).append(','), literal.getValue());
+      }
+    }
+    return Fingerprint.of(text);
+  }
+
+  private static void appendField(StringBuilder text, String value) {
+    text.append(value.length()).append(':').append(value);
+  }
+}
@@ -0,0 +1,67 @@
+package edu.kpi.lab.model.transform.associative;
+
+import edu.kpi.lab.model.transform.associative.node.Expr;
+import java.math.BigInteger;
+import java.util.Spliterator;
+import java.util.function.Consumer;
+
+/**
+ * Spliterator over a contiguous rank range of an {@link EquivalenceSpace}. Every split halves the remaining range, so
+ * parallel streams receive equally sized pieces of work regardless of how the expression is shaped.
+ */
+class EquivalenceSpliterator implements Spliterator<Expr> {
+  private static final BigInteger MAX_LONG = BigInteger.valueOf(Long.MAX_VALUE);
+
+  private final EquivalenceSpace space;
+
+  private BigInteger next;
+
+  private final BigInteger end;
+
+  EquivalenceSpliterator(EquivalenceSpace space) {
+    this(space, BigInteger.ZERO, space.size());
+  }
+
+  EquivalenceSpliterator(EquivalenceSpace space, BigInteger from, BigInteger to) {
+    this.space = space;
+    this.next = from;
+    this.end = to;
+  }
+
+  @Override
+  public boolean tryAdvance(Consumer<? super Expr> action) {
+    if (next.compareTo(end) >= 0) {
+      return false;
+    }
+    Expr expr = space.unrank(next);
+    next = next.add(BigInteger.ONE);
+    action.accept(expr);
+    return true;
+  }
+
+  @Override
+  public Spliterator<Expr> trySplit() {
+    BigInteger remaining = end.subtract(next);
+    if (remaining.compareTo(BigInteger.TWO) < 0) {
+      return null;
+    }
+    BigInteger middle = next.add(remaining.shiftRight(1));
+    Spliterator<Expr> prefix = new EquivalenceSpliterator(space, next, middle);
+    next = middle;
+    return prefix;
+  }
+
+  @Override
+  public long estimateSize() {
+    return end.subtract(next).min(MAX_LONG).longValue();
+  }
+
+  @Override
+  public int characteristics() {
+    int characteristics = ORDERED | NONNULL | IMMUTABLE;
+    if (end.subtract(next).compareTo(MAX_LONG) <= 0) {
+      characteristics |= SIZED | SUBSIZED;
+    }
+    return characteristics;
+  }
+}
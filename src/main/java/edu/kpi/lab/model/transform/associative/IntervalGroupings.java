@@ -0,0 +1,191 @@
+package edu.kpi.lab.model.transform.associative;
+
+import edu.kpi.lab.model.budget.EnumerationBudget;
+import edu.kpi.lab.model.transform.associative.node.Expr;
+import edu.kpi.lab.model.transform.associative.node.ExprArena;
+import edu.kpi.lab.model.transform.associative.node.ExprFactory;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * All bracketings of a flattened chain of terms joined by one associative operator. Results are addressed by
+ * intervals {@code [start, end)} of the chain; short intervals are materialised once in a memo table and shared by
+ * every split that contains them, long intervals are produced lazily on top of the memoised ones. The memo table is
+ * keyed by start and length and is only allocated once the first interval is materialised, so a chain that is only
+ * counted or unranked costs nothing but its items. Counting and unranking may run on several threads at once, as they do
+ * for a chain shared by an {@link EquivalenceSpace}; iterating may not.
+ */
+class IntervalGroupings {
+  /**
+   * Intervals up to this length have at most Catalan(8) = 1430 groupings and are kept in the memo table.
+   */
+  static final int MEMOIZED_LENGTH = 9;
+
+  private static volatile BigInteger[] catalan = {BigInteger.ONE};
+
+  private final List<Expr> items;
+
+  private final String op;
+
+  private final ExprFactory factory;
+
+  private List<List<Expr>> memo;
+
+  private volatile long[] longCounts;
+
+  IntervalGroupings(List<Expr> items, String op, ExprFactory factory) {
+    this.items = items;
+    this.op = op;
+    this.factory = factory;
+  }
+
+  /**
+   * Number of groupings of the whole chain, Catalan(n - 1).
+   */
+  BigInteger count() {
+    return count(items.size());
+  }
+
+  /**
+   * Number of groupings of a chain of {@code length} items, Catalan(length - 1). Values come from one table shared by
+   * all chains, grown with the closed form C(k + 1) = C(k) * 2(2k + 1) / (k + 2) when a longer chain asks for them.
+   */
+  static BigInteger count(int length) {
+    BigInteger[] table = catalan;
+    if (length > table.length) {
+      table = growCatalan(length);
+    }
+    return table[length - 1];
+  }
+
+  private static synchronized BigInteger[] growCatalan(int length) {
+    BigInteger[] table = catalan;
+    if (length <= table.length) {
+      return table;
+    }
+    BigInteger[] grown = Arrays.copyOf(table, Math.max(length, table.length * 2));
+    for (int k = table.length - 1; k < grown.length - 1; k++) {
+      grown[k + 1] = grown[k].multiply(BigInteger.valueOf(2L * (2 * k + 1))).divide(BigInteger.valueOf(k + 2));
+    }
+    catalan = grown;
+    return grown;
+  }
+
+  /**
+   * {@link #count(int)} by length as {@code long}s for the arena path, which is only used when the whole space fits in a
+   * {@code long}. Threads unranking the same chain may race to build the array; it is published only once filled.
+   */
+  private long[] longCounts() {
+    long[] counts = longCounts;
+    if (counts == null) {
+      counts = new long[items.size() + 1];
+      for (int length = 1; length <= items.size(); length++) {
+        counts[length] = count(length).longValue();
+      }
+      longCounts = counts;
+    }
+    return counts;
+  }
+
+  /**
+   * The grouping at position {@code rank} of {@link #iterate()}, built directly without visiting the ones before it.
+   */
+  Expr unrank(BigInteger rank) {
+    return unrank(0, items.size(), rank);
+  }
+
+  private Expr unrank(int start, int end, BigInteger rank) {
+    if (end - start == 1) {
+      return items.get(start);
+    }
+    for (int split = start + 1; split < end; split++) {
+      BigInteger rights = count(end - split);
+      BigInteger block = count(split - start).multiply(rights);
+      if (rank.compareTo(block) < 0) {
+        BigInteger[] position = rank.divideAndRemainder(rights);
+        return combine(unrank(start, split, position[0]), unrank(split, end, position[1]));
+      }
+      rank = rank.subtract(block);
+    }
+    throw new IndexOutOfBoundsException("Grouping rank is out of range");
+  }
+
+  /**
+   * Same as {@link #unrank(BigInteger)}, but builds the grouping in {@code arena} and returns its handle. Only the
+   * grouping's own operators are allocated; the chain items are referenced as they are.
+   */
+  int unrank(ExprArena arena, long rank) {
+    return unrank(arena, 0, items.size(), rank);
+  }
+
+  private int unrank(ExprArena arena, int start, int end, long rank) {
+    if (end - start == 1) {
+      return arena.external(items.get(start));
+    }
+    long[] counts = longCounts();
+    for (int split = start + 1; split < end; split++) {
+      long rights = counts[end - split];
+      long block = counts[split - start] * rights;
+      if (rank < block) {
+        int left = unrank(arena, start, split, rank / rights);
+        return arena.binary(left, op, unrank(arena, split, end, rank % rights));
+      }
+      rank -= block;
+    }
+    throw new IndexOutOfBoundsException("Grouping rank is out of range");
+  }
+
+  Iterator<Expr> iterate(EnumerationBudget budget) {
+    return iterate(0, items.size(), budget);
+  }
+
+  private Iterator<Expr> iterate(int start, int end, EnumerationBudget budget) {
+    if (end - start <= MEMOIZED_LENGTH) {
+      return materialize(start, end, budget).iterator();
+    }
+    return LazyIterators.range(start + 1, end, split -> LazyIterators.product(
+      () -> iterate(start, split, budget),
+      () -> iterate(split, end, budget),
+      (left, right) -> {
+        budget.allocateNode();
+        return combine(left, right);
+      }));
+  }
+
+  private List<Expr> materialize(int start, int end, EnumerationBudget budget) {
+    if (memo == null) {
+      memo = new ArrayList<>(Collections.nCopies(items.size() * MEMOIZED_LENGTH, null));
+    }
+    int key = start * MEMOIZED_LENGTH + end - start - 1;
+    List<Expr> cached = memo.get(key);
+    if (cached != null) {
+      return cached;
+    }
+
+    List<Expr> result = new ArrayList<>();
+    if (end - start == 1) {
+      result.add(items.get(start));
+    } else {
+      for (int split = start + 1; split < end; split++) {
+        List<Expr> lefts = materialize(start, split, budget);
+        List<Expr> rights = materialize(split, end, budget);
+        for (Expr left : lefts) {
+          for (Expr right : rights) {
+            budget.allocateNode();
+            result.add(combine(left, right));
+          }
+        }
+      }
+    }
+    memo.set(key, result);
+    return result;
+  }
+
+  private Expr combine(Expr left, Expr right) {
+    return factory.binary(left, op, right);
+  }
+}
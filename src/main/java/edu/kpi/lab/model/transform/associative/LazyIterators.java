@@ -0,0 +1,131 @@
+package edu.kpi.lab.model.transform.associative;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.BiFunction;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+import java.util.function.Supplier;
+
+/**
+ * Building blocks for on-demand enumeration. Every iterator keeps only its current position, so a recursion
+ * frame costs a constant amount of memory no matter how many elements it eventually produces.
+ */
+final class LazyIterators {
+
+  private LazyIterators() {
+  }
+
+  static <T> Iterator<T> single(T value) {
+    return Collections.singletonList(value).iterator();
+  }
+
+  static <T, R> Iterator<R> map(Iterator<T> source, Function<T, R> mapper) {
+    return new Iterator<>() {
+      @Override
+      public boolean hasNext() {
+        return source.hasNext();
+      }
+
+      @Override
+      public R next() {
+        return mapper.apply(source.next());
+      }
+    };
+  }
+
+  /**
+   * Cartesian product in left-major order. The right side is re-created for every left element instead of being
+   * buffered, trading recomputation for bounded memory.
+   */
+  static <L, R, T> Iterator<T> product(Supplier<Iterator<L>> lefts, Supplier<Iterator<R>> rights,
+                                       BiFunction<L, R, T> combine) {
+    return new Iterator<>() {
+      private final Iterator<L> leftIterator = lefts.get();
+      private L currentLeft;
+      private Iterator<R> rightIterator = Collections.emptyIterator();
+
+      @Override
+      public boolean hasNext() {
+        while (!rightIterator.hasNext()) {
+          if (!leftIterator.hasNext()) {
+            return false;
+          }
+          currentLeft = leftIterator.next();
+          rightIterator = rights.get();
+        }
+        return true;
+      }
+
+      @Override
+      public T next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return combine.apply(currentLeft, rightIterator.next());
+      }
+    };
+  }
+
+  /**
+   * Passes elements through for as long as {@code admit} agrees; it is asked once per element, just before the
+   * element is handed out.
+   */
+  static <T> Iterator<T> admitted(Iterator<T> source, BooleanSupplier admit) {
+    return new Iterator<>() {
+      private boolean decided;
+      private boolean open;
+
+      @Override
+      public boolean hasNext() {
+        if (!decided) {
+          open = source.hasNext() && admit.getAsBoolean();
+          decided = true;
+        }
+        return open;
+      }
+
+      @Override
+      public T next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        decided = false;
+        return source.next();
+      }
+    };
+  }
+
+  static <T> Iterator<T> concat(List<Supplier<Iterator<T>>> parts) {
+    return range(0, parts.size(), i -> parts.get(i).get());
+  }
+
+  static <T> Iterator<T> range(int from, int to, IntFunction<Iterator<T>> part) {
+    return new Iterator<>() {
+      private int index = from;
+      private Iterator<T> current = Collections.emptyIterator();
+
+      @Override
+      public boolean hasNext() {
+        while (!current.hasNext()) {
+          if (index >= to) {
+            return false;
+          }
+          current = part.apply(index++);
+        }
+        return true;
+      }
+
+      @Override
+      public T next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        return current.next();
+      }
+    };
+  }
+}
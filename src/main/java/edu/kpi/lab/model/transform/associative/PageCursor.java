@@ -0,0 +1,50 @@
+package edu.kpi.lab.model.transform.associative;
+
+import edu.kpi.lab.model.transform.Fingerprint;
+import java.math.BigInteger;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+/**
+ * Position in the rank order of one expression's equivalents, encoded as URL-safe Base64 of the fingerprint of the
+ * expression's tree (see {@link EquivalenceSpace#getStructure()}) followed by the rank. The fingerprint ties a cursor
+ * to its expression, so the server needs no session to resume.
+ */
+final class PageCursor {
+  private static final int FINGERPRINT_BYTES = 2 * Long.BYTES;
+
+  private PageCursor() {
+  }
+
+  static String encode(Fingerprint expression, BigInteger rank) {
+    byte[] position = rank.toByteArray();
+    ByteBuffer buffer = ByteBuffer.allocate(FINGERPRINT_BYTES + position.length);
+    buffer.putLong(expression.getHigh()).putLong(expression.getLow()).put(position);
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+  }
+
+  /**
+   * Rank stored in {@code cursor}; {@code null} stands for the first page.
+   */
+  static BigInteger decode(String cursor, Fingerprint expression) {
+    if (cursor == null) {
+      return BigInteger.ZERO;
+    }
+    try {
+      ByteBuffer buffer = ByteBuffer.wrap(Base64.getUrlDecoder().decode(cursor));
+      if (buffer.getLong() != expression.getHigh() || buffer.getLong() != expression.getLow()) {
+        throw new IllegalArgumentException("Cursor belongs to a different expression");
+      }
+      byte[] position = new byte[buffer.remaining()];
+      buffer.get(position);
+      BigInteger rank = new BigInteger(position);
+      if (rank.signum() < 0) {
+        throw new IllegalArgumentException("Malformed cursor: " + cursor);
+      }
+      return rank;
+    } catch (BufferUnderflowException | NumberFormatException e) {
+      throw new IllegalArgumentException("Malformed cursor: " + cursor, e);
+    }
+  }
+}
@@ -0,0 +1,48 @@
+package edu.kpi.lab.model.transform.associative;
+
+import edu.kpi.lab.model.lexical.LexicalAnalyzer;
+import edu.kpi.lab.model.lexical.Token;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+/**
+ * Worker process of {@link ShardedEnumeration}. Arguments: the job file, which holds the shard count on its first line
+ * and the expression after it, and the shard index. Prints every form of the shard on its own line and finishes with
+ * {@link #END_MARKER}, so the coordinator can tell a complete shard from a worker that died half way.
+ */
+public final class ShardWorker {
+  static final String END_MARKER = "#end";
+
+  private ShardWorker() {
+  }
+
+  public static void main(String[] args) throws IOException {
+    if (args.length != 2) {
+      throw new IllegalArgumentException("Usage: ShardWorker <job file> <shard>");
+    }
+    String job = Files.readString(Path.of(args[0]), StandardCharsets.UTF_8);
+    int lineEnd = job.indexOf('\n');
+    if (lineEnd < 0 || !job.endsWith("\n")) {
+      throw new IllegalArgumentException("Malformed job file " + args[0]);
+    }
+    int shardCount = Integer.parseInt(job.substring(0, lineEnd));
+    List<Token> tokens = new LexicalAnalyzer().processMathSentence(job.substring(lineEnd + 1, job.length() - 1));
+    int shard = Integer.parseInt(args[1]);
+
+    PrintWriter out = new PrintWriter(
+      new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8), 1 << 16), false);
+    new AssociativeTransformer().streamShard(tokens, shard, shardCount)
+      .forEach(expr -> out.println(expr.toString()));
+    out.println(END_MARKER);
+    out.flush();
+    if (out.checkError()) {
+      System.exit(1);
+    }
+  }
+}
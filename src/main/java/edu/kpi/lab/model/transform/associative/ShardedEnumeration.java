@@ -0,0 +1,157 @@
+package edu.kpi.lab.model.transform.associative;
+
+import edu.kpi.lab.model.transform.ExternalFormSet;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+/**
+ * Coordinator that enumerates associative equivalents in separate worker JVMs. The rank space is split into
+ * deterministic shards (see {@link AssociativeTransformer#streamShard}); every shard runs in its own
+ * {@link ShardWorker} process whose output is streamed back over a pipe into {@code shard-N.part} and promoted to
+ * {@code shard-N.done} once the worker reports completion. Completed shards are kept in the work directory, so after
+ * a worker is killed, or the coordinator itself is restarted, only the missing shards are run again. Finished shards
+ * are merged and deduplicated through an {@link ExternalFormSet} into {@code equivalents.txt}, which every run
+ * replaces. Workers read the expression from the job file rather than from their command line, whose length is
+ * limited by the operating system.
+ */
+public class ShardedEnumeration {
+  static final String JOB_FILE = "job.txt";
+
+  private static final String RESULT_FILE = "equivalents.txt";
+
+  private final Path workDirectory;
+
+  private final int shardCount;
+
+  private final int parallelWorkers;
+
+  private final int maxAttempts;
+
+  private final int maxBufferedForms;
+
+  public ShardedEnumeration(Path workDirectory, int shardCount, int parallelWorkers, int maxAttempts,
+                            int maxBufferedForms) {
+    this.workDirectory = workDirectory;
+    this.shardCount = shardCount;
+    this.parallelWorkers = parallelWorkers;
+    this.maxAttempts = maxAttempts;
+    this.maxBufferedForms = maxBufferedForms;
+  }
+
+  /**
+   * Runs every shard that is not finished yet and returns a sorted file with the distinct forms of all shards.
+   */
+  public Path enumerate(String expression) {
+    try {
+      Files.createDirectories(workDirectory);
+      checkJob(expression);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+
+    ExecutorService pool = Executors.newFixedThreadPool(parallelWorkers);
+    try {
+      List<Future<Path>> shards = new ArrayList<>(shardCount);
+      for (int shard = 0; shard < shardCount; shard++) {
+        int index = shard;
+        shards.add(pool.submit(() -> runShard(index)));
+      }
+      List<Path> results = new ArrayList<>(shardCount);
+      for (Future<Path> shard : shards) {
+        results.add(shard.get());
+      }
+      return merge(results);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while waiting for shard workers", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException(e.getCause().getMessage(), e.getCause());
+    } finally {
+      pool.shutdownNow();
+    }
+  }
+
+  public Path shardFile(int shard) {
+    return workDirectory.resolve("shard-" + shard + ".done");
+  }
+
+  private void checkJob(String expression) throws IOException {
+    Path job = workDirectory.resolve(JOB_FILE);
+    String description = shardCount + "\n" + expression + "\n";
+    if (Files.exists(job)) {
+      if (!Files.readString(job, StandardCharsets.UTF_8).equals(description)) {
+        throw new IllegalStateException("Work directory " + workDirectory + " belongs to a different job");
+      }
+    } else {
+      Files.writeString(job, description, StandardCharsets.UTF_8);
+    }
+  }
+
+  private Path runShard(int shard) throws IOException, InterruptedException {
+    Path done = shardFile(shard);
+    if (Files.exists(done)) {
+      return done;
+    }
+    Path partial = workDirectory.resolve("shard-" + shard + ".part");
+    for (int attempt = 1; attempt <= maxAttempts; attempt++) {
+      Process worker = new ProcessBuilder(workerCommand(shard))
+        .redirectError(ProcessBuilder.Redirect.INHERIT)
+        .start();
+      boolean complete = false;
+      try (BufferedReader in = worker.inputReader(StandardCharsets.UTF_8);
+           BufferedWriter out = Files.newBufferedWriter(partial, StandardCharsets.UTF_8)) {
+        String line;
+        while ((line = in.readLine()) != null) {
+          if (line.equals(ShardWorker.END_MARKER)) {
+            complete = true;
+            break;
+          }
+          out.write(line);
+          out.newLine();
+        }
+      } finally {
+        if (!complete) {
+          worker.destroyForcibly();
+        }
+      }
+      if (worker.waitFor() == 0 && complete) {
+        return Files.move(partial, done, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      }
+    }
+    Files.deleteIfExists(partial);
+    throw new IllegalStateException("Shard " + shard + " failed after " + maxAttempts + " attempts");
+  }
+
+  private List<String> workerCommand(int shard) {
+    String java = Path.of(System.getProperty("java.home"), "bin", "java").toString();
+    return List.of(java, "-cp", System.getProperty("java.class.path"), ShardWorker.class.getName(),
+      workDirectory.resolve(JOB_FILE).toString(), String.valueOf(shard));
+  }
+
+  private Path merge(List<Path> shards) throws IOException {
+    try (ExternalFormSet forms = new ExternalFormSet(workDirectory, maxBufferedForms)) {
+      for (Path shard : shards) {
+        try (Stream<String> lines = Files.lines(shard, StandardCharsets.UTF_8)) {
+          lines.forEach(forms::add);
+        }
+      }
+      return Files.move(forms.finish(), workDirectory.resolve(RESULT_FILE), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+    }
+  }
+}
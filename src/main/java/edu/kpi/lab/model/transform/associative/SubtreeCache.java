@@ -0,0 +1,130 @@
+package edu.kpi.lab.model.transform.associative;
+
+import edu.kpi.lab.model.budget.EnumerationBudget;
+import edu.kpi.lab.model.transform.associative.node.Expr;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Completed equivalence lists of subtrees, shared by every expression a transformer handles. Subtrees are keyed by
+ * their interned node, so {@code (d+q-w)} is found again in any formula that contains it. Only subtrees with at most
+ * {@code maxFormsPerEntry} equivalents are kept; the cache as a whole holds at most {@code maxForms} forms and evicts
+ * the least recently used subtrees first. All methods may be called from several threads.
+ */
+public class SubtreeCache {
+  private final long maxForms;
+
+  private final int maxFormsPerEntry;
+
+  private final LinkedHashMap<Expr, List<Expr>> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+  private long cachedForms;
+
+  private final AtomicLong hits = new AtomicLong();
+
+  private final AtomicLong misses = new AtomicLong();
+
+  public SubtreeCache(long maxForms, int maxFormsPerEntry) {
+    if (maxForms < 0 || maxFormsPerEntry < 0) {
+      throw new IllegalArgumentException("Cache limits must not be negative");
+    }
+    this.maxForms = maxForms;
+    this.maxFormsPerEntry = maxFormsPerEntry;
+  }
+
+  public static SubtreeCache disabled() {
+    return new SubtreeCache(0, 0);
+  }
+
+  public synchronized List<Expr> get(Expr subtree) {
+    if (maxFormsPerEntry == 0) {
+      return null;
+    }
+    List<Expr> cached = entries.get(subtree);
+    if (cached != null) {
+      hits.incrementAndGet();
+    } else {
+      misses.incrementAndGet();
+    }
+    return cached;
+  }
+
+  /**
+   * Passes {@code generated} through, recording its elements on the way. Once the iterator is drained it is stored
+   * under {@code subtree}, unless it turned out too large or the budget ran out and the list may be incomplete.
+   */
+  Iterator<Expr> recording(Expr subtree, Iterator<Expr> generated, EnumerationBudget budget) {
+    if (maxFormsPerEntry == 0) {
+      return generated;
+    }
+    return new Iterator<>() {
+      private List<Expr> recorded = new ArrayList<>();
+
+      @Override
+      public boolean hasNext() {
+        boolean hasNext = generated.hasNext();
+        if (!hasNext && recorded != null) {
+          if (!budget.isExhausted()) {
+            put(subtree, List.copyOf(recorded));
+          }
+          recorded = null;
+        }
+        return hasNext;
+      }
+
+      @Override
+      public Expr next() {
+        Expr next = generated.next();
+        if (recorded != null) {
+          if (recorded.size() < maxFormsPerEntry) {
+            recorded.add(next);
+          } else {
+            recorded = null;
+          }
+        }
+        return next;
+      }
+    };
+  }
+
+  private synchronized void put(Expr subtree, List<Expr> equivalents) {
+    if (equivalents.size() > maxForms) {
+      return;
+    }
+    List<Expr> previous = entries.put(subtree, equivalents);
+    if (previous != null) {
+      cachedForms -= previous.size();
+    }
+    cachedForms += equivalents.size();
+    Iterator<Map.Entry<Expr, List<Expr>>> eldest = entries.entrySet().iterator();
+    while (cachedForms > maxForms) {
+      cachedForms -= eldest.next().getValue().size();
+      eldest.remove();
+    }
+  }
+
+  public synchronized void clear() {
+    entries.clear();
+    cachedForms = 0;
+  }
+
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  public synchronized long getCachedForms() {
+    return cachedForms;
+  }
+
+  public long getHits() {
+    return hits.get();
+  }
+
+  public long getMisses() {
+    return misses.get();
+  }
+}
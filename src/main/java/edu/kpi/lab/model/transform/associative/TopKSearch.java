@@ -0,0 +1,217 @@
+package edu.kpi.lab.model.transform.associative;
+
+import edu.kpi.lab.model.budget.EnumerationBudget;
+import edu.kpi.lab.model.transform.Fingerprint;
+import edu.kpi.lab.model.transform.associative.node.BinaryExpr;
+import edu.kpi.lab.model.transform.associative.node.Expr;
+import edu.kpi.lab.model.transform.associative.node.ExprFactory;
+import edu.kpi.lab.model.transform.associative.node.FunctionExpr;
+import edu.kpi.lab.model.transform.associative.node.UnaryExpr;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.BiFunction;
+
+/**
+ * Branch-and-bound search for the {@code k} cheapest equivalents under a {@link CostModel}. Since the cost of a node
+ * never decreases when an operand gets more expensive, the best forms of a node are built from the best forms of its
+ * parts only: every sub-expression and every interval of a flattened chain keeps its own {@code k} best, and operand
+ * pairs or chain splits whose lower bound cannot beat the current {@code k}-th best are skipped.
+ */
+class TopKSearch {
+  private final CostModel costModel;
+
+  private final int k;
+
+  private final ExprFactory factory;
+
+  private final ExprFactory results;
+
+  private final CommonFactoring factoring;
+
+  private final Map<Expr, List<Scored>> best = new HashMap<>();
+
+  private long sequence;
+
+  TopKSearch(CostModel costModel, int k, ExprFactory factory, CommonFactoring factoring) {
+    this.costModel = costModel;
+    this.k = k;
+    this.factory = factory;
+    this.results = factory.withoutInterning();
+    this.factoring = factoring;
+  }
+
+  List<Expr> search(Expr root) {
+    List<Expr> forms = new ArrayList<>();
+    for (Scored scored : best(root)) {
+      forms.add(scored.expr);
+    }
+    return forms;
+  }
+
+  private List<Scored> best(Expr expr) {
+    List<Scored> known = best.get(expr);
+    if (known != null) {
+      return known;
+    }
+
+    Bounded top = new Bounded();
+    if (expr instanceof UnaryExpr u) {
+      for (Scored operand : best(u.getOperand())) {
+        top.offer(score(results.unary(u.getOp(), operand.expr), costModel.operatorCost(u.getOp()) + operand.cost));
+      }
+    } else if (expr instanceof FunctionExpr f) {
+      for (Scored arg : best(f.getArg())) {
+        top.offer(score(results.function(f.getName(), arg.expr), costModel.functionCost(f.getName()) + arg.cost));
+      }
+    } else if (expr instanceof BinaryExpr b) {
+      pairs(top, best(b.getLeft()), best(b.getRight()), (l, r) -> results.binary(l, b.getOp(), r));
+      String op = b.getOp();
+      if (op.equals("+") || op.equals("-")) {
+        List<Expr> terms = factory.flattenAdd(expr);
+        if (terms.size() > 2) {
+          new Chain(terms, "+").offerAll(top);
+        }
+        for (Expr variant : factoring.variants(terms, EnumerationBudget.unlimited())) {
+          top.offer(score(variant, costModel.cost(variant)));
+        }
+      } else if (op.equals("*") || op.equals("/")) {
+        List<Expr> factors = factory.flattenMul(expr);
+        if (factors.size() > 2) {
+          new Chain(factors, "*").offerAll(top);
+        }
+      }
+    } else {
+      top.offer(score(expr, costModel.leafCost()));
+    }
+
+    List<Scored> sorted = top.sorted();
+    best.put(expr, sorted);
+    return sorted;
+  }
+
+  /**
+   * Offers combinations of two ascending candidate lists. Cost is monotone in both operands, so a row ends at the
+   * first combination the heap would reject, and the whole scan ends when a row's first combination is rejected.
+   */
+  private void pairs(Bounded top, List<Scored> lefts, List<Scored> rights, BiFunction<Expr, Expr, BinaryExpr> join) {
+    if (lefts.isEmpty() || rights.isEmpty()) {
+      return;
+    }
+    for (Scored left : lefts) {
+      BinaryExpr first = join.apply(left.expr, rights.getFirst().expr);
+      if (top.cannotAdmit(costModel.binaryCost(first, left.cost, rights.getFirst().cost))) {
+        return;
+      }
+      for (Scored right : rights) {
+        BinaryExpr candidate = join.apply(left.expr, right.expr);
+        double cost = costModel.binaryCost(candidate, left.cost, right.cost);
+        if (top.cannotAdmit(cost)) {
+          break;
+        }
+        top.offer(score(candidate, cost));
+      }
+    }
+  }
+
+  private Scored score(Expr expr, double cost) {
+    return new Scored(expr, cost, sequence++);
+  }
+
+  private final class Chain {
+    private final List<Expr> items;
+
+    private final String op;
+
+    private final Map<Integer, List<Scored>> intervals = new HashMap<>();
+
+    private Chain(List<Expr> items, String op) {
+      this.items = items;
+      this.op = op;
+    }
+
+    void offerAll(Bounded top) {
+      for (Scored scored : interval(0, items.size())) {
+        top.offer(scored);
+      }
+    }
+
+    private List<Scored> interval(int start, int end) {
+      int key = start * (items.size() + 1) + end;
+      List<Scored> known = intervals.get(key);
+      if (known != null) {
+        return known;
+      }
+
+      Bounded top = new Bounded();
+      if (end - start == 1) {
+        Expr item = items.get(start);
+        top.offer(score(item, costModel.cost(item)));
+      } else {
+        for (int split = start + 1; split < end; split++) {
+          pairs(top, interval(start, split), interval(split, end), (l, r) -> results.binary(l, op, r));
+        }
+      }
+
+      List<Scored> sorted = top.sorted();
+      intervals.put(key, sorted);
+      return sorted;
+    }
+  }
+
+  private static final class Scored {
+    private final Expr expr;
+
+    private final double cost;
+
+    /**
+     * Discovery order, so that forms of equal cost come out in a deterministic order.
+     */
+    private final long order;
+
+    private Scored(Expr expr, double cost, long order) {
+      this.expr = expr;
+      this.cost = cost;
+      this.order = order;
+    }
+  }
+
+  /**
+   * The {@code k} cheapest distinct forms seen so far, kept in a max-heap so the worst one can be evicted.
+   */
+  private final class Bounded {
+    private final PriorityQueue<Scored> heap = new PriorityQueue<>(
+      Comparator.comparingDouble((Scored s) -> s.cost).thenComparingLong(s -> s.order).reversed());
+
+    private final Set<Fingerprint> members = new HashSet<>();
+
+    boolean cannotAdmit(double cost) {
+      return heap.size() >= k && cost >= heap.peek().cost;
+    }
+
+    void offer(Scored scored) {
+      if (cannotAdmit(scored.cost)) {
+        return;
+      }
+      Fingerprint fingerprint = scored.expr.fingerprint();
+      if (!members.add(fingerprint)) {
+        return;
+      }
+      heap.add(scored);
+      if (heap.size() > k) {
+        members.remove(heap.poll().expr.fingerprint());
+      }
+    }
+
+    List<Scored> sorted() {
+      List<Scored> sorted = new ArrayList<>(heap);
+      sorted.sort(Comparator.comparingDouble((Scored s) -> s.cost).thenComparingLong(s -> s.order));
+      return sorted;
+    }
+  }
+}
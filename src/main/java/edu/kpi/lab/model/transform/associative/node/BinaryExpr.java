@@ -1,18 +1,16 @@
 package edu.kpi.lab.model.transform.associative.node;
 
-import lombok.EqualsAndHashCode;
+import edu.kpi.lab.model.transform.Rendering;
 import lombok.Getter;
-import lombok.Setter;
 
-@Setter
 @Getter
-@EqualsAndHashCode
 public class BinaryExpr extends Expr {
-  private Expr left;
-  private String op;
-  private Expr right;
+  private final Expr left;
+  private final String op;
+  private final Expr right;
 
-  public BinaryExpr(Expr left, String op, Expr right) {
+  BinaryExpr(Expr left, String op, Expr right) {
+    super((31 * left.hashCode() + op.hashCode()) * 31 + right.hashCode());
     this.left = left;
     this.op = op;
     this.right = right;
@@ -29,33 +27,43 @@ public class BinaryExpr extends Expr {
   }
 
   @Override
-  String toStr(int parentPrec) {
+  <T> T renderBody(Rendering<T> rendering) {
     int myPrec = getPrec();
-    String s;
     if (getOp().equals("+")) {
       if (getRight() instanceof UnaryExpr u && u.getOp().equals("-")) {
-        s = getLeft().toStr(myPrec) + "-" + u.getOperand().toStr(myPrec + 1);
+        return renderInfix(rendering, getLeft(), "-", u.getOperand(), myPrec, myPrec + 1);
       } else if (getLeft() instanceof UnaryExpr u && u.getOp().equals("-")) {
-        s = getRight().toStr(myPrec) + "-" + u.getOperand().toStr(myPrec + 1);
-      } else {
-        s = getLeft().toStr(myPrec) + "+" + getRight().toStr(myPrec);
+        return renderInfix(rendering, getRight(), "-", u.getOperand(), myPrec, myPrec + 1);
       }
+      return renderInfix(rendering, getLeft(), "+", getRight(), myPrec, myPrec);
     } else if (getOp().equals("*")) {
       if (getRight() instanceof UnaryExpr u && u.getOp().equals("/")) {
-        s = getLeft().toStr(myPrec) + "/" + u.getOperand().toStr(myPrec + 1);
+        return renderInfix(rendering, getLeft(), "/", u.getOperand(), myPrec, myPrec + 1);
       } else if (getLeft() instanceof UnaryExpr u && u.getOp().equals("/")) {
-        s = getRight().toStr(myPrec) + "/" + u.getOperand().toStr(myPrec + 1);
-      } else {
-        s = getLeft().toStr(myPrec) + "*" + getRight().toStr(myPrec);
+        return renderInfix(rendering, getRight(), "/", u.getOperand(), myPrec, myPrec + 1);
       }
-    } else {
-      s = getLeft().toStr(myPrec) + getOp() +
-          getRight().toStr(myPrec + (getOp().equals("-") || getOp().equals("/") ? 1 : 0));
+      return renderInfix(rendering, getLeft(), "*", getRight(), myPrec, myPrec);
     }
-    if (myPrec <= parentPrec) {
-      s = "(" + s + ")";
+    return renderInfix(rendering, getLeft(), getOp(), getRight(), myPrec,
+      myPrec + (getOp().equals("-") || getOp().equals("/") ? 1 : 0));
+  }
+
+  private static <T> T renderInfix(Rendering<T> rendering, Expr left, String op, Expr right, int leftPrec,
+                                   int rightPrec) {
+    return rendering.concat(left.render(rendering, leftPrec), rendering.text(op), right.render(rendering, rightPrec));
+  }
+
+  @Override
+  boolean needsBrackets(int parentPrec) {
+    return getPrec() <= parentPrec;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
     }
-    return s;
+    return o instanceof BinaryExpr other && hashCode() == other.hashCode() && sameChild(left, other.left) &&
+           sameChild(right, other.right) && op.equals(other.op);
   }
 }
-
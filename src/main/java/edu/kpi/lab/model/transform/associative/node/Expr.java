@@ -1,12 +1,81 @@
 package edu.kpi.lab.model.transform.associative.node;
 
-/** Base expression node for associative transformations. */
+import edu.kpi.lab.model.transform.Fingerprint;
+import edu.kpi.lab.model.transform.Rendering;
+import java.util.List;
+
+/**
+ * Base expression node for associative transformations. Nodes are immutable and created through
+ * {@link ExprFactory}, which interns them: structurally equal subtrees are the same instance, so equality of interned
+ * nodes only compares the node's own fields and the identity of its children. Nodes from
+ * {@link ExprFactory#withoutInterning()} fall back to comparing children structurally.
+ */
 public abstract class Expr {
-  abstract String toStr(int parentPrec);
+  private final int hash;
+
+  private String body;
+
+  private Fingerprint fingerprint;
+
+  List<Expr> addTerms;
+
+  List<Expr> mulFactors;
+
+  Expr(int hash) {
+    this.hash = hash;
+  }
+
+  abstract <T> T renderBody(Rendering<T> rendering);
+
+  abstract boolean needsBrackets(int parentPrec);
+
+  @SuppressWarnings("unchecked")
+  <T> T render(Rendering<T> rendering, int parentPrec) {
+    if (rendering == Rendering.TEXT) {
+      return (T) toStr(parentPrec);
+    } else if (rendering == Rendering.FINGERPRINT) {
+      return (T) fingerprint(parentPrec);
+    }
+    T s = renderBody(rendering);
+    return needsBrackets(parentPrec) ? rendering.bracket(s) : s;
+  }
+
+  String toStr(int parentPrec) {
+    String s = body;
+    if (s == null) {
+      s = renderBody(Rendering.TEXT);
+      body = s;
+    }
+    return needsBrackets(parentPrec) ? "(" + s + ")" : s;
+  }
+
+  private Fingerprint fingerprint(int parentPrec) {
+    Fingerprint f = fingerprint;
+    if (f == null) {
+      f = renderBody(Rendering.FINGERPRINT);
+      fingerprint = f;
+    }
+    return needsBrackets(parentPrec) ? Rendering.FINGERPRINT.bracket(f) : f;
+  }
+
+  /**
+   * Fingerprint of {@link #toString()}, computed from the children's cached fingerprints without rendering text.
+   */
+  public Fingerprint fingerprint() {
+    return fingerprint(0);
+  }
+
+  static boolean sameChild(Expr child, Expr otherChild) {
+    return child == otherChild || child.equals(otherChild);
+  }
+
+  @Override
+  public final int hashCode() {
+    return hash;
+  }
 
   @Override
   public String toString() {
     return toStr(0);
   }
 }
-
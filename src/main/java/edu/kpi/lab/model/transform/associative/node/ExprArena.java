@@ -0,0 +1,247 @@
+package edu.kpi.lab.model.transform.associative.node;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Off-heap store for short-lived enumeration nodes. A node is a fixed-size record in a direct buffer and is addressed
+ * by an {@code int} handle, so building a form allocates no heap objects. Parts that outlive a single form, such as
+ * leaves and the expressions they come from, stay on the heap and are referenced from the records.
+ *
+ * <p>Typical use is to take a {@link #mark()}, build one form, render or convert it, and {@link #reset(int)} to the
+ * mark so that the next form reuses the same memory. {@link #close()} drops the whole buffer at once. An arena is
+ * not thread-safe.
+ */
+public final class ExprArena implements AutoCloseable {
+  private static final int EXTERNAL = 0;
+
+  private static final int UNARY = 1;
+
+  private static final int FUNCTION = 2;
+
+  private static final int BINARY = 3;
+
+  private static final int RECORD_BYTES = 4 * Integer.BYTES;
+
+  private ByteBuffer records;
+
+  private int nodes;
+
+  private final List<Expr> externals = new ArrayList<>();
+
+  private final Map<Expr, Integer> externalHandles = new IdentityHashMap<>();
+
+  private final List<String> symbols = new ArrayList<>();
+
+  private final Map<String, Integer> symbolIndexes = new HashMap<>();
+
+  public ExprArena(int initialNodes) {
+    records = ByteBuffer.allocateDirect(Math.max(1, initialNodes) * RECORD_BYTES);
+  }
+
+  /**
+   * Handle of a heap node used as is. Every distinct node is registered once and kept until the arena is closed.
+   */
+  public int external(Expr expr) {
+    Integer index = externalHandles.get(expr);
+    if (index == null) {
+      index = externals.size();
+      externals.add(expr);
+      externalHandles.put(expr, index);
+    }
+    return allocate(EXTERNAL, index, 0, 0);
+  }
+
+  public int unary(String op, int operand) {
+    return allocate(UNARY, symbol(op), operand, 0);
+  }
+
+  public int function(String name, int arg) {
+    return allocate(FUNCTION, symbol(name), arg, 0);
+  }
+
+  public int binary(int left, String op, int right) {
+    return allocate(BINARY, symbol(op), left, right);
+  }
+
+  public int mark() {
+    return nodes;
+  }
+
+  /**
+   * Releases every node allocated after {@code mark}; their handles must not be used afterwards.
+   */
+  public void reset(int mark) {
+    nodes = mark;
+  }
+
+  /**
+   * Appends the text of {@code handle} to {@code out}, exactly as {@link Expr#toString()} would render it.
+   */
+  public void render(int handle, StringBuilder out) {
+    render(handle, 0, out);
+  }
+
+  /**
+   * Copies {@code handle} to the heap so it stays valid after the arena is reset or closed.
+   */
+  public Expr toExpr(int handle, ExprFactory factory) {
+    return switch (kind(handle)) {
+      case UNARY -> factory.unary(symbolOf(handle), toExpr(left(handle), factory));
+      case FUNCTION -> factory.function(symbolOf(handle), toExpr(left(handle), factory));
+      case BINARY -> factory.binary(toExpr(left(handle), factory), symbolOf(handle), toExpr(right(handle), factory));
+      default -> externals.get(field(handle, 1));
+    };
+  }
+
+  @Override
+  public void close() {
+    records = null;
+    nodes = 0;
+    externals.clear();
+    externalHandles.clear();
+  }
+
+  private void render(int handle, int parentPrec, StringBuilder out) {
+    if (kind(handle) == EXTERNAL) {
+      out.append(externals.get(field(handle, 1)).toStr(parentPrec));
+      return;
+    }
+    boolean brackets = needsBrackets(handle, parentPrec);
+    if (brackets) {
+      out.append('(');
+    }
+    String symbol = symbolOf(handle);
+    switch (kind(handle)) {
+      case UNARY -> {
+        if (symbol.equals("-") || symbol.equals("/")) {
+          out.append(symbol.equals("-") ? "-" : "1/");
+          render(left(handle), 3, out);
+        }
+      }
+      case FUNCTION -> {
+        out.append(symbol).append('(');
+        render(left(handle), 0, out);
+        out.append(')');
+      }
+      default -> renderBinary(handle, symbol, out);
+    }
+    if (brackets) {
+      out.append(')');
+    }
+  }
+
+  private void renderBinary(int handle, String op, StringBuilder out) {
+    int myPrec = prec(op);
+    int left = left(handle);
+    int right = right(handle);
+    String inverse = op.equals("+") ? "-" : op.equals("*") ? "/" : null;
+    if (inverse != null) {
+      if (isUnary(right, inverse)) {
+        render(left, myPrec, out);
+        out.append(inverse);
+        renderOperand(right, myPrec + 1, out);
+      } else if (isUnary(left, inverse)) {
+        render(right, myPrec, out);
+        out.append(inverse);
+        renderOperand(left, myPrec + 1, out);
+      } else {
+        renderInfix(left, op, right, myPrec, myPrec, out);
+      }
+      return;
+    }
+    renderInfix(left, op, right, myPrec, myPrec + (op.equals("-") || op.equals("/") ? 1 : 0), out);
+  }
+
+  private void renderInfix(int left, String op, int right, int leftPrec, int rightPrec, StringBuilder out) {
+    render(left, leftPrec, out);
+    out.append(op);
+    render(right, rightPrec, out);
+  }
+
+  private void renderOperand(int unary, int parentPrec, StringBuilder out) {
+    if (kind(unary) == EXTERNAL) {
+      out.append(((UnaryExpr) externals.get(field(unary, 1))).getOperand().toStr(parentPrec));
+    } else {
+      render(left(unary), parentPrec, out);
+    }
+  }
+
+  /**
+   * Whether {@code handle} is a unary {@code op}, looking through external nodes so that mixed trees render the same
+   * as pure heap trees.
+   */
+  private boolean isUnary(int handle, String op) {
+    if (kind(handle) == EXTERNAL) {
+      return externals.get(field(handle, 1)) instanceof UnaryExpr u && u.getOp().equals(op);
+    }
+    return kind(handle) == UNARY && symbolOf(handle).equals(op);
+  }
+
+  private boolean needsBrackets(int handle, int parentPrec) {
+    String symbol = symbolOf(handle);
+    return switch (kind(handle)) {
+      case UNARY -> symbol.equals("-") ? parentPrec >= 3 : symbol.equals("/") && parentPrec > 2;
+      case BINARY -> prec(symbol) <= parentPrec;
+      default -> false;
+    };
+  }
+
+  private static int prec(String op) {
+    if (op.equals("+") || op.equals("-")) {
+      return 1;
+    }
+    if (op.equals("*") || op.equals("/")) {
+      return 2;
+    }
+    return 0;
+  }
+
+  private int allocate(int kind, int symbol, int left, int right) {
+    if ((nodes + 1) * RECORD_BYTES > records.capacity()) {
+      ByteBuffer grown = ByteBuffer.allocateDirect(records.capacity() * 2);
+      grown.put(records.duplicate().clear().limit(nodes * RECORD_BYTES));
+      records = grown;
+    }
+    int offset = nodes * RECORD_BYTES;
+    records.putInt(offset, kind);
+    records.putInt(offset + Integer.BYTES, symbol);
+    records.putInt(offset + 2 * Integer.BYTES, left);
+    records.putInt(offset + 3 * Integer.BYTES, right);
+    return nodes++;
+  }
+
+  private int symbol(String symbol) {
+    Integer index = symbolIndexes.get(symbol);
+    if (index == null) {
+      index = symbols.size();
+      symbols.add(symbol);
+      symbolIndexes.put(symbol, index);
+    }
+    return index;
+  }
+
+  private int field(int handle, int field) {
+    return records.getInt(handle * RECORD_BYTES + field * Integer.BYTES);
+  }
+
+  private int kind(int handle) {
+    return field(handle, 0);
+  }
+
+  private String symbolOf(int handle) {
+    return symbols.get(field(handle, 1));
+  }
+
+  private int left(int handle) {
+    return field(handle, 2);
+  }
+
+  private int right(int handle) {
+    return field(handle, 3);
+  }
+}
@@ -0,0 +1,141 @@
+package edu.kpi.lab.model.transform.associative.node;
+
+import edu.kpi.lab.model.lexical.TokenType;
+import java.lang.ref.WeakReference;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Hash-consing factory for {@link Expr} nodes. Each node is looked up in a weak intern table before it is handed out,
+ * so structurally equal subtrees share one instance for as long as anybody references them. The table is split into
+ * independently locked stripes to keep parallel enumeration from serialising on a single monitor.
+ */
+public final class ExprFactory {
+  private static final ExprFactory SHARED = new ExprFactory();
+
+  private static final int STRIPES = 64;
+
+  private final List<Map<Expr, WeakReference<Expr>>> stripes;
+
+  private final ExprFactory withoutInterning;
+
+  public ExprFactory() {
+    this(true);
+  }
+
+  private ExprFactory(boolean interning) {
+    if (interning) {
+      stripes = new ArrayList<>(STRIPES);
+      for (int i = 0; i < STRIPES; i++) {
+        stripes.add(new WeakHashMap<>());
+      }
+      withoutInterning = new ExprFactory(false);
+    } else {
+      stripes = null;
+      withoutInterning = this;
+    }
+  }
+
+  public static ExprFactory shared() {
+    return SHARED;
+  }
+
+  /**
+   * A view of this factory that allocates nodes without looking them up. Enumeration results are almost always
+   * distinct, so interning them would only cost time; their children still come from the interning factory.
+   */
+  public ExprFactory withoutInterning() {
+    return withoutInterning;
+  }
+
+  public Literal literal(String value, TokenType type) {
+    return intern(new Literal(value, type));
+  }
+
+  public UnaryExpr unary(String op, Expr operand) {
+    return intern(new UnaryExpr(op, operand));
+  }
+
+  public FunctionExpr function(String name, Expr arg) {
+    return intern(new FunctionExpr(name, arg));
+  }
+
+  public BinaryExpr binary(Expr left, String op, Expr right) {
+    return intern(new BinaryExpr(left, op, right));
+  }
+
+  /**
+   * Terms of the {@code +}/{@code -} chain rooted at {@code expr}; subtracted terms are wrapped in a unary minus.
+   * The result is computed once per node and must not be modified.
+   */
+  public List<Expr> flattenAdd(Expr expr) {
+    List<Expr> terms = expr.addTerms;
+    if (terms == null) {
+      List<Expr> collected = new ArrayList<>();
+      flatten(expr, collected, "+", "-");
+      terms = List.copyOf(collected);
+      expr.addTerms = terms;
+    }
+    return terms;
+  }
+
+  /**
+   * Factors of the {@code *}/{@code /} chain rooted at {@code expr}; divisors are wrapped in a unary reciprocal.
+   * The result is computed once per node and must not be modified.
+   */
+  public List<Expr> flattenMul(Expr expr) {
+    List<Expr> factors = expr.mulFactors;
+    if (factors == null) {
+      List<Expr> collected = new ArrayList<>();
+      flatten(expr, collected, "*", "/");
+      factors = List.copyOf(collected);
+      expr.mulFactors = factors;
+    }
+    return factors;
+  }
+
+  /**
+   * Leaves of the {@code same}/{@code inverse} chain at {@code expr}, left to right, with the leaves under an odd number
+   * of right operands of {@code inverse} wrapped in a unary {@code inverse}. Chains are as deep as they are long, so
+   * they are walked with an explicit stack.
+   */
+  private void flatten(Expr expr, List<Expr> leaves, String same, String inverse) {
+    Deque<Expr> pending = new ArrayDeque<>();
+    Deque<Boolean> signs = new ArrayDeque<>();
+    pending.push(expr);
+    signs.push(true);
+    while (!pending.isEmpty()) {
+      Expr current = pending.pop();
+      boolean sign = signs.pop();
+      if (current instanceof BinaryExpr b && (b.getOp().equals(same) || b.getOp().equals(inverse))) {
+        pending.push(b.getRight());
+        signs.push(b.getOp().equals(same) == sign);
+        pending.push(b.getLeft());
+        signs.push(sign);
+      } else {
+        leaves.add(sign ? current : unary(inverse, current));
+      }
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private <T extends Expr> T intern(T candidate) {
+    if (stripes == null) {
+      return candidate;
+    }
+    Map<Expr, WeakReference<Expr>> stripe = stripes.get(Math.floorMod(candidate.hashCode(), STRIPES));
+    synchronized (stripe) {
+      WeakReference<Expr> existing = stripe.get(candidate);
+      Expr interned = existing != null ? existing.get() : null;
+      if (interned != null) {
+        return (T) interned;
+      }
+      stripe.put(candidate, new WeakReference<>(candidate));
+      return candidate;
+    }
+  }
+}
@@ -1,24 +1,35 @@
 package edu.kpi.lab.model.transform.associative.node;
 
-import lombok.EqualsAndHashCode;
+import edu.kpi.lab.model.transform.Rendering;
 import lombok.Getter;
-import lombok.Setter;
 
-@Setter
 @Getter
-@EqualsAndHashCode
 public class FunctionExpr extends Expr {
-  private String name;
-  private Expr arg;
+  private final String name;
+  private final Expr arg;
 
-  public FunctionExpr(String name, Expr arg) {
+  FunctionExpr(String name, Expr arg) {
+    super(31 * name.hashCode() + arg.hashCode());
     this.name = name;
     this.arg = arg;
   }
 
   @Override
-  String toStr(int parentPrec) {
-    return getName() + "(" + getArg().toStr(0) + ")";
+  <T> T renderBody(Rendering<T> rendering) {
+    return rendering.concat(rendering.text(getName()), rendering.bracket(getArg().render(rendering, 0)));
+  }
+
+  @Override
+  boolean needsBrackets(int parentPrec) {
+    return false;
   }
-}
 
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    return o instanceof FunctionExpr other && hashCode() == other.hashCode() && sameChild(arg, other.arg) &&
+           name.equals(other.name);
+  }
+}
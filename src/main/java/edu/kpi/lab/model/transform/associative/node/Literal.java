@@ -1,25 +1,36 @@
 package edu.kpi.lab.model.transform.associative.node;
 
 import edu.kpi.lab.model.lexical.TokenType;
-import lombok.EqualsAndHashCode;
+import edu.kpi.lab.model.transform.Rendering;
 import lombok.Getter;
-import lombok.Setter;
 
-@Setter
 @Getter
-@EqualsAndHashCode
 public class Literal extends Expr {
-  private String value;
-  private TokenType type;
+  private final String value;
+  private final TokenType type;
 
-  public Literal(String value, TokenType type) {
+  Literal(String value, TokenType type) {
+    super(31 * value.hashCode() + type.ordinal());
     this.value = value;
     this.type = type;
   }
 
   @Override
-  String toStr(int parentPrec) {
-    return getValue();
+  <T> T renderBody(Rendering<T> rendering) {
+    return rendering.text(getValue());
+  }
+
+  @Override
+  boolean needsBrackets(int parentPrec) {
+    return false;
   }
-}
 
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    return o instanceof Literal other && hashCode() == other.hashCode() && value.equals(other.value) &&
+           type == other.type;
+  }
+}
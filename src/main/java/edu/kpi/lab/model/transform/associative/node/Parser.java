@@ -1,15 +1,33 @@
 package edu.kpi.lab.model.transform.associative.node;
 
 import edu.kpi.lab.model.lexical.Token;
+import edu.kpi.lab.model.lexical.TokenBuffer;
 import edu.kpi.lab.model.lexical.TokenType;
 import java.util.List;
 
 public class Parser {
-  private final List<Token> tokens;
+  private final TokenBuffer tokens;
+  private final ExprFactory factory;
   private int pos = 0;
 
   public Parser(List<Token> tokens) {
+    this(tokens, ExprFactory.shared());
+  }
+
+  public Parser(List<Token> tokens, ExprFactory factory) {
+    this(TokenBuffer.of(tokens), factory);
+  }
+
+  public Parser(TokenBuffer tokens) {
+    this(tokens, ExprFactory.shared());
+  }
+
+  /**
+   * Reads types and values straight from {@code tokens}, without creating {@link Token} objects.
+   */
+  public Parser(TokenBuffer tokens, ExprFactory factory) {
     this.tokens = tokens;
+    this.factory = factory;
   }
 
   public Expr parse() {
@@ -19,13 +37,14 @@ public class Parser {
   private Expr parseExpression() {
     Expr expr = parseTerm();
     while (pos < tokens.size()) {
-      Token t = peek();
-      if (t.getTokenType() != TokenType.OPERATION_ADD && t.getTokenType() != TokenType.OPERATION_MINUS) {
+      TokenType type = peek();
+      if (type != TokenType.OPERATION_ADD && type != TokenType.OPERATION_MINUS) {
         break;
       }
+      String op = tokens.getValueString(pos);
       advance();
       Expr right = parseTerm();
-      expr = new BinaryExpr(expr, t.getValue(), right);
+      expr = factory.binary(expr, op, right);
     }
     return expr;
   }
@@ -33,56 +52,57 @@ public class Parser {
   private Expr parseTerm() {
     Expr expr = parseFactor();
     while (pos < tokens.size()) {
-      Token t = peek();
-      if (t.getTokenType() != TokenType.OPERATION_MULTIPLY && t.getTokenType() != TokenType.OPERATION_DIVIDE) {
+      TokenType type = peek();
+      if (type != TokenType.OPERATION_MULTIPLY && type != TokenType.OPERATION_DIVIDE) {
         break;
       }
+      String op = tokens.getValueString(pos);
       advance();
       Expr right = parseFactor();
-      expr = new BinaryExpr(expr, t.getValue(), right);
+      expr = factory.binary(expr, op, right);
     }
     return expr;
   }
 
   private Expr parseFactor() {
-    Token t = peek();
-    if (t.getTokenType() == TokenType.OPERATION_MINUS) {
+    TokenType type = peek();
+    if (type == TokenType.OPERATION_MINUS) {
       advance();
-      return new UnaryExpr("-", parseFactor());
-    } else if (t.getTokenType() == TokenType.OPEN_BRACKET) {
+      return factory.unary("-", parseFactor());
+    } else if (type == TokenType.OPEN_BRACKET) {
       advance();
       Expr expr = parseExpression();
-      if (peek().getTokenType() == TokenType.CLOSE_BRACKET) {
+      if (peek() == TokenType.CLOSE_BRACKET) {
         advance();
       }
       return expr;
-    } else if (t.getTokenType() == TokenType.FUNCTION) {
+    } else if (type == TokenType.FUNCTION) {
+      String name = tokens.getValueString(pos);
       advance();
-      if (peek().getTokenType() == TokenType.FUNCTION_OPEN_BRACKET) {
+      if (peek() == TokenType.FUNCTION_OPEN_BRACKET) {
         advance();
       }
       Expr arg = parseExpression();
-      if (peek().getTokenType() == TokenType.FUNCTION_CLOSE_BRACKET) {
+      if (peek() == TokenType.FUNCTION_CLOSE_BRACKET) {
         advance();
       }
-      return new FunctionExpr(t.getValue(), arg);
-    } else if (t.getTokenType() == TokenType.INTEGER || t.getTokenType() == TokenType.DECIMAL ||
-        t.getTokenType() == TokenType.CONSTANT) {
+      return factory.function(name, arg);
+    } else if (type == TokenType.INTEGER || type == TokenType.DECIMAL || type == TokenType.CONSTANT) {
+      String value = tokens.getValueString(pos);
       advance();
-      return new Literal(t.getValue(), t.getTokenType());
+      return factory.literal(value, type);
     }
     return null; // error
   }
 
-  private Token peek() {
+  private TokenType peek() {
     if (pos >= tokens.size()) {
-      return new Token(0, 0, TokenType.ERROR, "");
+      return TokenType.ERROR;
     }
-    return tokens.get(pos);
+    return tokens.getTokenType(pos);
   }
 
   private void advance() {
     pos++;
   }
 }
-
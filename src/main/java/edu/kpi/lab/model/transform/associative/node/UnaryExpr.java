@@ -1,37 +1,45 @@
 package edu.kpi.lab.model.transform.associative.node;
 
-import lombok.EqualsAndHashCode;
+import edu.kpi.lab.model.transform.Rendering;
 import lombok.Getter;
-import lombok.Setter;
 
-@Setter
 @Getter
-@EqualsAndHashCode
 public class UnaryExpr extends Expr {
-  private String op;
-  private Expr operand;
+  private final String op;
+  private final Expr operand;
 
-  public UnaryExpr(String op, Expr operand) {
+  UnaryExpr(String op, Expr operand) {
+    super(31 * op.hashCode() + operand.hashCode());
     this.op = op;
     this.operand = operand;
   }
 
   @Override
-  String toStr(int parentPrec) {
+  <T> T renderBody(Rendering<T> rendering) {
     if (getOp().equals("-")) {
-      String s = "-" + getOperand().toStr(3);
-      if (parentPrec >= 3) {
-        s = "(" + s + ")";
-      }
-      return s;
+      return rendering.concat(rendering.text("-"), getOperand().render(rendering, 3));
     } else if (getOp().equals("/")) {
-      String s = "1/" + getOperand().toStr(3);
-      if (parentPrec > 2) {
-        s = "(" + s + ")";
-      }
-      return s;
+      return rendering.concat(rendering.text("1/"), getOperand().render(rendering, 3));
     }
-    return "";
+    return rendering.text("");
   }
-}
 
+  @Override
+  boolean needsBrackets(int parentPrec) {
+    if (getOp().equals("-")) {
+      return parentPrec >= 3;
+    } else if (getOp().equals("/")) {
+      return parentPrec > 2;
+    }
+    return false;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    return o instanceof UnaryExpr other && hashCode() == other.hashCode() && sameChild(operand, other.operand) &&
+           op.equals(other.op);
+  }
+}
@@ -1,16 +1,64 @@
 package edu.kpi.lab.model.transform.commutative;
 
+import edu.kpi.lab.model.transform.AdmissionPolicy;
+import edu.kpi.lab.model.transform.Fingerprint;
+import edu.kpi.lab.model.transform.FrontCodedStringSet;
 import edu.kpi.lab.model.transform.commutative.node.Function;
+import edu.kpi.lab.model.transform.commutative.node.Mode;
 import edu.kpi.lab.model.lexical.Token;
+import edu.kpi.lab.model.lexical.TokenBuffer;
 import edu.kpi.lab.model.lexical.TokenType;
 import edu.kpi.lab.model.syntax.SyntaxType;
+import java.math.BigInteger;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.RecursiveTask;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class CommutativeTransformer {
+  private static final int ORDERINGS = 2;
+
+  /**
+   * Subtrees lighter than this many nodes are balanced on the current thread.
+   */
+  private static final int SEQUENTIAL_WEIGHT = 1 << 12;
+
+  private final Mode mode;
+
+  private final ForkJoinPool pool;
+
+  public CommutativeTransformer() {
+    this(Mode.BALANCED);
+  }
+
+  /**
+   * Builds every {@code +} and {@code *} chain of the results in the given shape.
+   */
+  public CommutativeTransformer(Mode mode) {
+    this(mode, null);
+  }
+
+  /**
+   * Balances large trees on {@code pool}, or on the calling thread if it is {@code null}. Both produce the same forms.
+   */
+  public CommutativeTransformer(Mode mode, ForkJoinPool pool) {
+    this.mode = mode;
+    this.pool = pool;
+  }
+
   private static SyntaxType getSyntaxTypeFromTokenType(TokenType tokenType) {
     return switch (tokenType) {
       case OPERATION_ADD -> SyntaxType.OPERATION_ADD;
@@ -21,69 +69,54 @@ public class CommutativeTransformer {
     };
   }
 
-  private Function parseExpression(List<Token> tokens, int[] position) {
+  private Function parseExpression(TokenBuffer tokens, int[] position) {
     Function result = parseTerm(tokens, position);
     while (position[0] < tokens.size()) {
-      Token current = tokens.get(position[0]);
-      TokenType type = current.getTokenType();
+      TokenType type = tokens.getTokenType(position[0]);
       if (type != TokenType.OPERATION_ADD && type != TokenType.OPERATION_MINUS) {
         break;
       }
       position[0]++;
       Function right = parseTerm(tokens, position);
-      Function newNode = new Function(getSyntaxTypeFromTokenType(type));
-      newNode.setLeft(result);
-      newNode.setRight(right);
-      result = newNode;
+      result = Function.operation(getSyntaxTypeFromTokenType(type), result, right);
     }
     return result;
   }
 
-  private Function parseTerm(List<Token> tokens, int[] position) {
+  private Function parseTerm(TokenBuffer tokens, int[] position) {
     Function result = parseFactor(tokens, position);
     while (position[0] < tokens.size()) {
-      Token current = tokens.get(position[0]);
-      TokenType type = current.getTokenType();
+      TokenType type = tokens.getTokenType(position[0]);
       if (type != TokenType.OPERATION_MULTIPLY && type != TokenType.OPERATION_DIVIDE) {
         break;
       }
       position[0]++;
       Function right = parseFactor(tokens, position);
-      Function newNode = new Function(getSyntaxTypeFromTokenType(type));
-      newNode.setLeft(result);
-      newNode.setRight(right);
-      result = newNode;
+      result = Function.operation(getSyntaxTypeFromTokenType(type), result, right);
     }
     return result;
   }
 
-  private Function parseFactor(List<Token> tokens, int[] position) {
-    Token current = tokens.get(position[0]);
+  private Function parseFactor(TokenBuffer tokens, int[] position) {
+    int current = position[0];
     position[0]++;
-    return switch (current.getTokenType()) {
-      case CONSTANT, INTEGER, DECIMAL -> {
-        Function node = new Function(SyntaxType.OPERAND);
-        node.setValue(current.getValue());
-        yield node;
-      }
+    return switch (tokens.getTokenType(current)) {
+      case CONSTANT, INTEGER, DECIMAL -> Function.operand(tokens.getValueString(current));
       case FUNCTION -> {
-        if (tokens.get(position[0]).getTokenType() != TokenType.FUNCTION_OPEN_BRACKET) {
+        if (tokens.getTokenType(position[0]) != TokenType.FUNCTION_OPEN_BRACKET) {
           throw new RuntimeException("Expected open bracket after function");
         }
         position[0]++;
         Function arg = parseExpression(tokens, position);
-        if (tokens.get(position[0]).getTokenType() != TokenType.FUNCTION_CLOSE_BRACKET) {
+        if (tokens.getTokenType(position[0]) != TokenType.FUNCTION_CLOSE_BRACKET) {
           throw new RuntimeException("Expected close bracket after function arg");
         }
         position[0]++;
-        Function node = new Function(SyntaxType.FUNCTION);
-        node.setValue(current.getValue());
-        node.setParam(arg);
-        yield node;
+        yield Function.function(tokens.getValueString(current), arg);
       }
       case OPEN_BRACKET -> {
         Function expr = parseExpression(tokens, position);
-        if (tokens.get(position[0]).getTokenType() != TokenType.CLOSE_BRACKET) {
+        if (tokens.getTokenType(position[0]) != TokenType.CLOSE_BRACKET) {
           throw new RuntimeException("Expected close bracket");
         }
         position[0]++;
@@ -91,33 +124,108 @@ public class CommutativeTransformer {
       }
       case OPERATION_MINUS -> {
         Function child = parseFactor(tokens, position);
-        Function zero = new Function(SyntaxType.OPERAND);
-        zero.setValue("0");
-        Function node = new Function(SyntaxType.OPERATION_MINUS);
-        node.setLeft(zero);
-        node.setRight(child);
-        yield node;
+        yield Function.operation(SyntaxType.OPERATION_MINUS, Function.operand("0"), child);
+      }
+      default -> throw new RuntimeException("Unexpected token in factor: " + tokens.getToken(current));
+    };
+  }
+
+  /**
+   * Runs the enumeration only if the policy admits its size. A downgraded request returns only the first ordering.
+   */
+  public Set<String> generateEquivalentExpressions(List<Token> tokens, AdmissionPolicy policy) {
+    BigInteger count = countEquivalentExpressions(tokens);
+    return switch (policy.decide(count)) {
+      case ACCEPT -> generateEquivalentExpressions(tokens);
+      case DOWNGRADE -> {
+        Function tree = parse(tokens);
+        Set<String> results = new LinkedHashSet<>();
+        results.add(balance(tree, descendingWeight()).getExpression());
+        yield results;
       }
-      default -> throw new RuntimeException("Unexpected token in factor: " + current);
+      case REJECT -> throw policy.rejection(count);
     };
   }
 
+  /**
+   * Exact number of forms the enumeration produces before duplicates are removed.
+   */
+  public BigInteger countEquivalentExpressions(List<Token> tokens) {
+    parse(tokens);
+    return BigInteger.valueOf(ORDERINGS);
+  }
+
   public Set<String> generateEquivalentExpressions(List<Token> tokens) {
+    return generateEquivalentExpressions(TokenBuffer.of(tokens));
+  }
+
+  public Set<String> generateEquivalentExpressions(TokenBuffer tokens) {
+    Function tree = parse(tokens);
+
+    Set<Fingerprint> seen = new HashSet<>();
+    Set<String> results = new LinkedHashSet<>();
+
+    Function balancedDesc = balance(tree, descendingWeight());
+    if (seen.add(balancedDesc.getFingerprint())) {
+      results.add(balancedDesc.getExpression());
+    }
+
+    Function balancedLex = balance(tree, Function.byExpression());
+    if (seen.add(balancedLex.getFingerprint())) {
+      results.add(balancedLex.getExpression());
+    }
+
+    return results;
+  }
+
+  /**
+   * The same forms as {@link #generateEquivalentExpressions(List)}, sorted and front-coded.
+   */
+  public FrontCodedStringSet generateCompactEquivalentExpressions(List<Token> tokens) {
+    return FrontCodedStringSet.of(generateEquivalentExpressions(tokens));
+  }
+
+  /**
+   * Every distinct ordering of the operands of every {@code +} and {@code *} chain, nested chains included, produced
+   * on demand. Operands that are equal up to ordering are interchangeable, so permutations that only swap them are
+   * skipped. Only the current ordering of each chain is kept, never the list of all of them.
+   */
+  public Stream<Function> streamAllOrderings(List<Token> tokens) {
+    Iterator<Function> orderings = new OrderingEnumeration(mode).orderings(parse(tokens));
+    return StreamSupport.stream(Spliterators.spliteratorUnknownSize(orderings,
+      Spliterator.ORDERED | Spliterator.DISTINCT | Spliterator.NONNULL), false);
+  }
+
+  /**
+   * Number of elements of {@link #streamAllOrderings(List)}: for each chain, the multinomial coefficient of its
+   * operand classes times the orderings of the operands themselves.
+   */
+  public BigInteger countAllOrderings(List<Token> tokens) {
+    return new OrderingEnumeration(mode).count(parse(tokens));
+  }
+
+  private Function parse(List<Token> tokens) {
+    return parse(TokenBuffer.of(tokens));
+  }
+
+  private Function parse(TokenBuffer tokens) {
     int[] position = new int[1];
     Function tree = parseExpression(tokens, position);
     if (position[0] != tokens.size()) {
       throw new RuntimeException("Parsing error: extra tokens");
     }
+    return tree;
+  }
 
-    Set<String> results = new LinkedHashSet<>();
-
-    Function balancedDesc = balanceTree(tree, Comparator.comparingInt(Function::getWeight).reversed().thenComparing(Function::getExpression));
-    results.add(balancedDesc.getExpression());
-
-    Function balancedLex = balanceTree(tree, Comparator.comparing(Function::getExpression));
-    results.add(balancedLex.getExpression());
+  private static Comparator<Function> descendingWeight() {
+    return Comparator.comparingInt(Function::getWeight).reversed().thenComparing(Function.byExpression());
+  }
 
-    return results;
+  private Function balance(Function tree, Comparator<Function> comparator) {
+    if (pool == null || tree.getWeight() < SEQUENTIAL_WEIGHT) {
+      return balanceTree(tree, comparator);
+    }
+    return pool.invoke(new BalanceTask(tree, comparator));
   }
 
   private Function balanceTree(Function node, Comparator<Function> comparator) {
@@ -125,50 +233,115 @@ public class CommutativeTransformer {
       return null;
     }
 
-    if (node.getLeft() != null) {
-      node.setLeft(balanceTree(node.getLeft(), comparator));
-    }
-    if (node.getRight() != null) {
-      node.setRight(balanceTree(node.getRight(), comparator));
-    }
-    if (node.getParam() != null) {
-      node.setParam(balanceTree(node.getParam(), comparator));
-    }
-
     SyntaxType type = node.getType();
     if (type == SyntaxType.OPERATION_ADD || type == SyntaxType.OPERATION_MULTIPLY) {
       List<Function> operands = collectOperands(node, type);
+      operands.replaceAll(operand -> balanceTree(operand, comparator));
       operands.sort(comparator);
-      return buildBalanced(operands, type);
+      return mode.build(operands, type);
     }
 
-    return node;
+    return node.withChildren(balanceTree(node.getLeft(), comparator), balanceTree(node.getRight(), comparator),
+                             balanceTree(node.getParam(), comparator));
   }
 
-  private List<Function> collectOperands(Function node, SyntaxType opType) {
-    List<Function> operands = new ArrayList<>();
-    if (node.getType() == opType) {
-      operands.addAll(collectOperands(node.getLeft(), opType));
-      operands.addAll(collectOperands(node.getRight(), opType));
-    } else {
-      operands.add(node);
+  /**
+   * {@link #balanceTree} for heavy subtrees. The operands of a chain are balanced as independent tasks and sorted with
+   * {@link Arrays#parallelSort}; like {@link List#sort} it is stable, so the result is the tree the sequential path
+   * builds.
+   */
+  @SuppressWarnings("serial")
+  private final class BalanceTask extends RecursiveTask<Function> {
+    private final Function node;
+
+    private final Comparator<Function> comparator;
+
+    private BalanceTask(Function node, Comparator<Function> comparator) {
+      this.node = node;
+      this.comparator = comparator;
+    }
+
+    @Override
+    protected Function compute() {
+      if (node == null || node.getWeight() < SEQUENTIAL_WEIGHT) {
+        return balanceTree(node, comparator);
+      }
+
+      SyntaxType type = node.getType();
+      if (type == SyntaxType.OPERATION_ADD || type == SyntaxType.OPERATION_MULTIPLY) {
+        Function[] operands = collectOperands(node, type).toArray(Function[]::new);
+        new OperandsTask(operands, 0, operands.length, comparator).invoke();
+        Arrays.parallelSort(operands, comparator);
+        return mode.build(Arrays.asList(operands), type);
+      }
+
+      BalanceTask left = new BalanceTask(node.getLeft(), comparator);
+      BalanceTask right = new BalanceTask(node.getRight(), comparator);
+      BalanceTask param = new BalanceTask(node.getParam(), comparator);
+      invokeAll(left, right, param);
+      return node.withChildren(left.join(), right.join(), param.join());
     }
-    return operands;
   }
 
-  private Function buildBalanced(List<Function> operands, SyntaxType opType) {
-    if (operands.isEmpty()) {
-      return null;
+  /**
+   * Balances {@code operands[from..to)} in place, splitting the range in halves until its weight is below the cutoff.
+   */
+  @SuppressWarnings("serial")
+  private final class OperandsTask extends RecursiveAction {
+    private final Function[] operands;
+
+    private final int from;
+
+    private final int to;
+
+    private final Comparator<Function> comparator;
+
+    private OperandsTask(Function[] operands, int from, int to, Comparator<Function> comparator) {
+      this.operands = operands;
+      this.from = from;
+      this.to = to;
+      this.comparator = comparator;
+    }
+
+    @Override
+    protected void compute() {
+      if (to - from == 1) {
+        operands[from] = new BalanceTask(operands[from], comparator).compute();
+        return;
+      }
+      long weight = 0;
+      for (int i = from; i < to; i++) {
+        weight += operands[i].getWeight();
+      }
+      if (weight < SEQUENTIAL_WEIGHT) {
+        for (int i = from; i < to; i++) {
+          operands[i] = balanceTree(operands[i], comparator);
+        }
+        return;
+      }
+      int middle = (from + to) >>> 1;
+      invokeAll(new OperandsTask(operands, from, middle, comparator), new OperandsTask(operands, middle, to, comparator));
     }
-    if (operands.size() == 1) {
-      return operands.getFirst();
+  }
+
+  /**
+   * Operands of the {@code opType} chain rooted at {@code node}, left to right, with its numeric operands folded into
+   * one constant. The parser builds chains left-deep, so the chain is walked with an explicit stack rather than by
+   * recursion.
+   */
+  static List<Function> collectOperands(Function node, SyntaxType opType) {
+    List<Function> operands = new ArrayList<>();
+    Deque<Function> pending = new ArrayDeque<>();
+    pending.push(node);
+    while (!pending.isEmpty()) {
+      Function current = pending.pop();
+      if (current.getType() == opType) {
+        pending.push(current.getRight());
+        pending.push(current.getLeft());
+      } else {
+        operands.add(current);
+      }
     }
-    int mid = operands.size() / 2;
-    Function left = buildBalanced(operands.subList(0, mid), opType);
-    Function right = buildBalanced(operands.subList(mid, operands.size()), opType);
-    Function node = new Function(opType);
-    node.setLeft(left);
-    node.setRight(right);
-    return node;
-  }
-}
\ No newline at end of file
+    return ConstantFolding.fold(operands, opType);
+  }
+}
@@ -0,0 +1,184 @@
+package edu.kpi.lab.model.transform.commutative;
+
+import edu.kpi.lab.model.syntax.SyntaxType;
+import edu.kpi.lab.model.transform.commutative.node.Function;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Combines the numeric operands of a {@code +} or {@code *} chain into one constant, including numbers written with
+ * the negation and reciprocal encodings of the parser and operands that are whole arithmetic sub-expressions of
+ * numbers, such as the {@code 1 - 2} of {@code 1 - 2 + a}. Arithmetic is exact: the folded value is written as a
+ * decimal when it has a finite one and as a quotient of integers otherwise. Chains with fewer than two numeric
+ * operands are returned unchanged, unless their only numeric operand is such a sub-expression.
+ *
+ * <p>A binary {@code -} or {@code /} ends a chain, so numbers on either side of a subtracted or divided operand that
+ * is not itself numeric are not brought together: {@code a - 1 + 2} keeps both constants.
+ */
+final class ConstantFolding {
+
+  private ConstantFolding() {
+  }
+
+  static List<Function> fold(List<Function> operands, SyntaxType type) {
+    boolean sum = type == SyntaxType.OPERATION_ADD;
+    Rational folded = sum ? Rational.ZERO : Rational.ONE;
+    int constants = 0;
+    int firstConstant = -1;
+    boolean evaluated = false;
+    List<Function> rest = new ArrayList<>(operands.size());
+    for (Function operand : operands) {
+      Rational value = valueOf(operand);
+      if (value == null) {
+        rest.add(operand);
+        continue;
+      }
+      folded = sum ? folded.add(value) : folded.multiply(value);
+      evaluated |= !isWrittenNumber(operand);
+      if (constants++ == 0) {
+        firstConstant = rest.size();
+      }
+    }
+    if (constants == 0 || constants == 1 && !evaluated) {
+      return operands;
+    }
+    boolean identity = sum ? folded.signum() == 0 : folded.equals(Rational.ONE);
+    if (!identity || rest.isEmpty()) {
+      rest.add(firstConstant, folded.toFunction());
+    }
+    return rest;
+  }
+
+  /**
+   * Value of a numeric operand: a number, or {@code +}, {@code -}, {@code *} and {@code /} of numeric operands, which
+   * covers the negations ({@code 0 - x}) and reciprocals ({@code 1 / x}) of numbers; {@code null} for anything else,
+   * including division by zero.
+   */
+  private static Rational valueOf(Function operand) {
+    if (operand == null) {
+      return null;
+    }
+    SyntaxType type = operand.getType();
+    if (type != SyntaxType.OPERATION_ADD && type != SyntaxType.OPERATION_MINUS &&
+        type != SyntaxType.OPERATION_MULTIPLY && type != SyntaxType.OPERATION_DIVIDE) {
+      return parse(operand);
+    }
+    Rational left = valueOf(operand.getLeft());
+    Rational right = left == null ? null : valueOf(operand.getRight());
+    if (right == null) {
+      return null;
+    }
+    return switch (type) {
+      case OPERATION_ADD -> left.add(right);
+      case OPERATION_MINUS -> left.add(right.negate());
+      case OPERATION_MULTIPLY -> left.multiply(right);
+      default -> right.signum() == 0 ? null : left.multiply(right.reciprocal());
+    };
+  }
+
+  /**
+   * Whether a numeric operand is a number as the parser writes one: a literal, possibly negated or inverted.
+   */
+  private static boolean isWrittenNumber(Function operand) {
+    if (operand.getType() == SyntaxType.OPERATION_MINUS && isNumber(operand.getLeft(), "0") ||
+        operand.getType() == SyntaxType.OPERATION_DIVIDE && isNumber(operand.getLeft(), "1")) {
+      return isWrittenNumber(operand.getRight());
+    }
+    return operand.getType() == SyntaxType.OPERAND;
+  }
+
+  private static boolean isNumber(Function node, String value) {
+    return node != null && node.getType() == SyntaxType.OPERAND && value.equals(node.getValue());
+  }
+
+  private static Rational parse(Function node) {
+    if (node == null || node.getType() != SyntaxType.OPERAND || node.getValue() == null) {
+      return null;
+    }
+    try {
+      BigDecimal decimal = new BigDecimal(node.getValue());
+      return decimal.scale() > 0
+             ? Rational.of(decimal.unscaledValue(), BigInteger.TEN.pow(decimal.scale()))
+             : Rational.of(decimal.toBigIntegerExact(), BigInteger.ONE);
+    } catch (NumberFormatException | ArithmeticException e) {
+      return null;
+    }
+  }
+
+  private static final class Rational {
+    static final Rational ZERO = new Rational(BigInteger.ZERO, BigInteger.ONE);
+
+    static final Rational ONE = new Rational(BigInteger.ONE, BigInteger.ONE);
+
+    private final BigInteger numerator;
+
+    private final BigInteger denominator;
+
+    private Rational(BigInteger numerator, BigInteger denominator) {
+      this.numerator = numerator;
+      this.denominator = denominator;
+    }
+
+    static Rational of(BigInteger numerator, BigInteger denominator) {
+      if (denominator.signum() < 0) {
+        numerator = numerator.negate();
+        denominator = denominator.negate();
+      }
+      BigInteger gcd = numerator.gcd(denominator);
+      return gcd.signum() == 0 || gcd.equals(BigInteger.ONE)
+             ? new Rational(numerator, denominator)
+             : new Rational(numerator.divide(gcd), denominator.divide(gcd));
+    }
+
+    Rational add(Rational other) {
+      return of(numerator.multiply(other.denominator).add(other.numerator.multiply(denominator)),
+        denominator.multiply(other.denominator));
+    }
+
+    Rational multiply(Rational other) {
+      return of(numerator.multiply(other.numerator), denominator.multiply(other.denominator));
+    }
+
+    Rational negate() {
+      return new Rational(numerator.negate(), denominator);
+    }
+
+    Rational reciprocal() {
+      return of(denominator, numerator);
+    }
+
+    int signum() {
+      return numerator.signum();
+    }
+
+    /**
+     * The value as a node: a number, a negated number for negative values, and {@code p / q} when the decimal
+     * expansion does not terminate.
+     */
+    Function toFunction() {
+      if (signum() < 0) {
+        return Function.operation(SyntaxType.OPERATION_MINUS, Function.operand("0"), negate().toFunction());
+      }
+      try {
+        BigDecimal value = new BigDecimal(numerator).divide(new BigDecimal(denominator));
+        return Function.operand(value.stripTrailingZeros().toPlainString());
+      } catch (ArithmeticException e) {
+        return Function.operation(SyntaxType.OPERATION_DIVIDE, Function.operand(numerator.toString()),
+          Function.operand(denominator.toString()));
+      }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof Rational other && numerator.equals(other.numerator) &&
+             denominator.equals(other.denominator);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * numerator.hashCode() + denominator.hashCode();
+    }
+  }
+}
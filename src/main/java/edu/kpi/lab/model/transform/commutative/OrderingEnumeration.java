@@ -0,0 +1,252 @@
+package edu.kpi.lab.model.transform.commutative;
+
+import edu.kpi.lab.model.syntax.SyntaxType;
+import edu.kpi.lab.model.transform.commutative.node.Function;
+import edu.kpi.lab.model.transform.commutative.node.Mode;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.function.Supplier;
+
+/**
+ * All operand orderings of an expression. The operands of a chain are grouped into classes of operands that are equal
+ * up to ordering; a chain's orderings are the distinct permutations of its class sequence, combined with every
+ * ordering of the operand placed at each position. Permutations are generated in lexicographic order from the sorted
+ * class sequence, which never repeats a sequence however many operands share a class.
+ */
+class OrderingEnumeration {
+  private final Mode mode;
+
+  private final Map<Function, String> keys = new IdentityHashMap<>();
+
+  OrderingEnumeration(Mode mode) {
+    this.mode = mode;
+  }
+
+  Iterator<Function> orderings(Function root) {
+    return plan(root).get();
+  }
+
+  BigInteger count(Function node) {
+    SyntaxType type = node.getType();
+    if (type == SyntaxType.OPERATION_ADD || type == SyntaxType.OPERATION_MULTIPLY) {
+      Chain chain = new Chain(node, type);
+      BigInteger count = BigInteger.ONE;
+      int placed = 0;
+      for (int c = 0; c < chain.members.size(); c++) {
+        int size = chain.sizes[c];
+        BigInteger operandCount = count(chain.members.get(c));
+        for (int i = 1; i <= size; i++) {
+          placed++;
+          count = count.multiply(BigInteger.valueOf(placed)).divide(BigInteger.valueOf(i)).multiply(operandCount);
+        }
+      }
+      return count;
+    } else if (node.getParam() != null) {
+      return count(node.getParam());
+    } else if (node.getLeft() != null) {
+      return count(node.getLeft()).multiply(count(node.getRight()));
+    }
+    return BigInteger.ONE;
+  }
+
+  private Supplier<Iterator<Function>> plan(Function node) {
+    SyntaxType type = node.getType();
+    if (type == SyntaxType.OPERATION_ADD || type == SyntaxType.OPERATION_MULTIPLY) {
+      Chain chain = new Chain(node, type);
+      List<Supplier<Iterator<Function>>> classes = new ArrayList<>();
+      for (Function member : chain.members) {
+        classes.add(plan(member));
+      }
+      return () -> new ChainIterator(chain, classes);
+    } else if (node.getParam() != null) {
+      Supplier<Iterator<Function>> params = plan(node.getParam());
+      return () -> new ChainIterator(List.of(params), new int[] {0}, false,
+        operands -> node.withChildren(null, null, operands[0]));
+    } else if (node.getLeft() != null) {
+      Supplier<Iterator<Function>> lefts = plan(node.getLeft());
+      Supplier<Iterator<Function>> rights = plan(node.getRight());
+      return () -> new ChainIterator(List.of(lefts, rights), new int[] {0, 1}, false,
+        operands -> node.withChildren(operands[0], operands[1], null));
+    }
+    return () -> Collections.singletonList(node).iterator();
+  }
+
+  /**
+   * Text that is the same for all nodes equal up to the order of chain operands.
+   */
+  private String key(Function node) {
+    String known = keys.get(node);
+    if (known != null) {
+      return known;
+    }
+    SyntaxType type = node.getType();
+    String key;
+    if (type == SyntaxType.OPERATION_ADD || type == SyntaxType.OPERATION_MULTIPLY) {
+      List<String> operandKeys = new ArrayList<>();
+      for (Function operand : CommutativeTransformer.collectOperands(node, type)) {
+        operandKeys.add(key(operand));
+      }
+      Collections.sort(operandKeys);
+      key = "(" + String.join(type == SyntaxType.OPERATION_ADD ? "+" : "*", operandKeys) + ")";
+    } else if (node.getParam() != null) {
+      key = node.getValue() + "(" + key(node.getParam()) + ")";
+    } else if (node.getLeft() != null) {
+      key = "(" + key(node.getLeft()) + (type == SyntaxType.OPERATION_MINUS ? "-" : "/") + key(node.getRight()) + ")";
+    } else {
+      key = node.getValue();
+    }
+    keys.put(node, key);
+    return key;
+  }
+
+  private interface Join {
+    Function apply(Function[] operands);
+  }
+
+  /**
+   * Operands of one chain grouped into classes, in the order of their keys.
+   */
+  private final class Chain {
+    private final SyntaxType type;
+
+    private final List<Function> members = new ArrayList<>();
+
+    private final int[] sizes;
+
+    private final int[] sequence;
+
+    private Chain(Function node, SyntaxType type) {
+      this.type = type;
+      TreeMap<String, List<Function>> classes = new TreeMap<>();
+      List<Function> operands = CommutativeTransformer.collectOperands(node, type);
+      for (Function operand : operands) {
+        classes.computeIfAbsent(key(operand), k -> new ArrayList<>()).add(operand);
+      }
+      sizes = new int[classes.size()];
+      sequence = new int[operands.size()];
+      int position = 0;
+      for (List<Function> members : classes.values()) {
+        int c = this.members.size();
+        this.members.add(members.getFirst());
+        sizes[c] = members.size();
+        Arrays.fill(sequence, position, position + members.size(), c);
+        position += members.size();
+      }
+    }
+  }
+
+  /**
+   * Walks the distinct permutations of a class sequence and, for each, an odometer over the orderings of the operand
+   * at every position. Position iterators are re-created whenever the position to their left moves on. Without
+   * {@code permute} the sequence stays fixed, which turns this into the plain product used for other operators.
+   */
+  private final class ChainIterator implements Iterator<Function> {
+    private final List<Supplier<Iterator<Function>>> classes;
+
+    private final int[] sequence;
+
+    private final boolean permute;
+
+    private final Join join;
+
+    private final List<Iterator<Function>> positions;
+
+    private final Function[] chosen;
+
+    private boolean ready;
+
+    private boolean exhausted;
+
+    private ChainIterator(Chain chain, List<Supplier<Iterator<Function>>> classes) {
+      this(classes, chain.sequence, true, operands -> mode.build(Arrays.asList(operands), chain.type));
+    }
+
+    private ChainIterator(List<Supplier<Iterator<Function>>> classes, int[] sequence, boolean permute, Join join) {
+      this.classes = classes;
+      this.sequence = sequence.clone();
+      this.permute = permute;
+      this.join = join;
+      this.positions = new ArrayList<>(Collections.nCopies(sequence.length, null));
+      this.chosen = new Function[sequence.length];
+      resetFrom(0);
+      ready = true;
+    }
+
+    @Override
+    public boolean hasNext() {
+      if (!ready && !exhausted) {
+        ready = advance();
+        exhausted = !ready;
+      }
+      return ready;
+    }
+
+    @Override
+    public Function next() {
+      if (!hasNext()) {
+        throw new NoSuchElementException();
+      }
+      ready = false;
+      return join.apply(chosen.clone());
+    }
+
+    private boolean advance() {
+      for (int i = sequence.length - 1; i >= 0; i--) {
+        if (positions.get(i).hasNext()) {
+          chosen[i] = positions.get(i).next();
+          resetFrom(i + 1);
+          return true;
+        }
+      }
+      if (!permute || !nextPermutation(sequence)) {
+        return false;
+      }
+      resetFrom(0);
+      return true;
+    }
+
+    private void resetFrom(int from) {
+      for (int i = from; i < sequence.length; i++) {
+        Iterator<Function> position = classes.get(sequence[i]).get();
+        positions.set(i, position);
+        chosen[i] = position.next();
+      }
+    }
+  }
+
+  /**
+   * Rearranges {@code a} into the next greater permutation in lexicographic order, returning {@code false} if it is
+   * already the greatest. Equal elements are never swapped with each other, so each distinct arrangement is visited
+   * once.
+   */
+  private static boolean nextPermutation(int[] a) {
+    int i = a.length - 2;
+    while (i >= 0 && a[i] >= a[i + 1]) {
+      i--;
+    }
+    if (i < 0) {
+      return false;
+    }
+    int j = a.length - 1;
+    while (a[j] <= a[i]) {
+      j--;
+    }
+    int t = a[i];
+    a[i] = a[j];
+    a[j] = t;
+    for (int l = i + 1, r = a.length - 1; l < r; l++, r--) {
+      t = a[l];
+      a[l] = a[r];
+      a[r] = t;
+    }
+    return true;
+  }
+}
@@ -1,30 +1,95 @@
 package edu.kpi.lab.model.transform.commutative.node;
 
 import edu.kpi.lab.model.syntax.SyntaxType;
+import edu.kpi.lab.model.transform.Fingerprint;
+import edu.kpi.lab.model.transform.Rendering;
 
+import java.util.Comparator;
 import java.util.Objects;
+import lombok.AccessLevel;
 import lombok.Getter;
-import lombok.Setter;
 
+/**
+ * Immutable expression tree node. Transformations build new nodes only along the paths they change and share every
+ * other subtree with their input, so one parsed tree can be transformed by several threads at once. The weight is
+ * computed on construction; the rendered text, its fingerprint and an ordering key are computed on first use. Racing
+ * threads may compute them twice, but always to the same values.
+ */
 @Getter
-@Setter
-public class Function {
-  private SyntaxType type;
-  private String value;
-  private Function left;
-  private Function right;
-  private Function param;
-
-  public Function(SyntaxType type) {
-    this.type = type;
-  }
+public final class Function {
+  private final SyntaxType type;
+  private final String value;
+  private final Function left;
+  private final Function right;
+  private final Function param;
+
+  private final int weight;
+
+  @Getter(AccessLevel.NONE)
+  private volatile String expression;
+
+  @Getter(AccessLevel.NONE)
+  private volatile Fingerprint fingerprint;
 
-  public int getWeight() {
+  /**
+   * Written before {@link #expression} is published and read after it, so it is visible whenever the text is.
+   */
+  @Getter(AccessLevel.NONE)
+  private long orderingKey;
+
+  private Function(SyntaxType type, String value, Function left, Function right, Function param) {
+    this.type = type;
+    this.value = value;
+    this.left = left;
+    this.right = right;
+    this.param = param;
     int w = 1;
     if (left != null) w += left.getWeight();
     if (right != null) w += right.getWeight();
     if (param != null) w += param.getWeight();
-    return w;
+    this.weight = w;
+  }
+
+  public static Function operand(String value) {
+    return new Function(SyntaxType.OPERAND, value, null, null, null);
+  }
+
+  public static Function function(String name, Function param) {
+    return new Function(SyntaxType.FUNCTION, name, null, null, param);
+  }
+
+  public static Function operation(SyntaxType type, Function left, Function right) {
+    return new Function(type, null, left, right, null);
+  }
+
+  /**
+   * This node with other children. Returns the node itself when nothing changes, so unchanged subtrees stay shared.
+   */
+  public Function withChildren(Function left, Function right, Function param) {
+    if (left == this.left && right == this.right && param == this.param) {
+      return this;
+    }
+    return new Function(type, value, left, right, param);
+  }
+
+  /**
+   * Orders nodes by their rendered text. Most comparisons are decided by the cached ordering key without looking at
+   * the strings.
+   */
+  public static Comparator<Function> byExpression() {
+    return (a, b) -> {
+      int c = Long.compareUnsigned(a.getOrderingKey(), b.getOrderingKey());
+      return c != 0 ? c : a.getExpression().compareTo(b.getExpression());
+    };
+  }
+
+  /**
+   * The first four UTF-16 units of {@link #getExpression()} packed into a {@code long}, so that comparing keys as
+   * unsigned numbers agrees with {@link String#compareTo(String)} whenever the keys differ.
+   */
+  private long getOrderingKey() {
+    getExpression();
+    return orderingKey;
   }
 
   private int getPrecedence() {
@@ -36,33 +101,79 @@ public class Function {
   }
 
   public String getExpression() {
-    return getExpression(0);
+    String e = expression;
+    if (e == null) {
+      e = renderBody(Rendering.TEXT);
+      long key = 0;
+      for (int i = 0; i < Long.BYTES / Character.BYTES; i++) {
+        key = key << Character.SIZE | (i < e.length() ? e.charAt(i) : 0);
+      }
+      orderingKey = key;
+      expression = e;
+    }
+    return e;
+  }
+
+  public Fingerprint getFingerprint() {
+    Fingerprint f = fingerprint;
+    if (f == null) {
+      f = renderBody(Rendering.FINGERPRINT);
+      fingerprint = f;
+    }
+    return f;
+  }
+
+  /**
+   * Renders children from their cached text or fingerprint, so producing a node's form costs only its own operator.
+   */
+  @SuppressWarnings("unchecked")
+  private <T> T render(Rendering<T> rendering, int parentPrec) {
+    T s;
+    if (rendering == Rendering.TEXT) {
+      s = (T) getExpression();
+    } else if (rendering == Rendering.FINGERPRINT) {
+      s = (T) getFingerprint();
+    } else {
+      s = renderBody(rendering);
+    }
+    return getRenderedPrecedence() < parentPrec ? rendering.bracket(s) : s;
   }
 
-  private String getExpression(int parentPrec) {
-    String s;
-    int myPrec;
+  private int getRenderedPrecedence() {
+    return switch (type) {
+      case OPERAND, FUNCTION -> 100;
+      case OPERATION_ADD, OPERATION_MINUS, OPERATION_MULTIPLY, OPERATION_DIVIDE -> isInverse() ? 3 : getPrecedence();
+      default -> 0;
+    };
+  }
+
+  /**
+   * Whether this node encodes a unary minus as {@code 0 - x} or a reciprocal as {@code 1 / x}.
+   */
+  private boolean isInverse() {
+    String identity = type == SyntaxType.OPERATION_MINUS ? "0" : type == SyntaxType.OPERATION_DIVIDE ? "1" : null;
+    return identity != null && left != null && left.getType() == SyntaxType.OPERAND && identity.equals(left.getValue());
+  }
+
+  private <T> T renderBody(Rendering<T> rendering) {
+    T s;
     switch (type) {
       case OPERAND -> {
-        s = Objects.requireNonNullElse(value, "?");
-        myPrec = 100;
+        s = rendering.text(Objects.requireNonNullElse(value, "?"));
       }
       case FUNCTION -> {
-        s = value + "(" + param.getExpression(0) + ")";
-        myPrec = 100;
+        s = rendering.concat(rendering.text(value), rendering.bracket(param.render(rendering, 0)));
       }
       case OPERATION_ADD, OPERATION_MINUS, OPERATION_MULTIPLY, OPERATION_DIVIDE -> {
         boolean isCommutAssoc = (type == SyntaxType.OPERATION_ADD || type == SyntaxType.OPERATION_MULTIPLY);
-        if (type == SyntaxType.OPERATION_MINUS && left != null && left.getType() == SyntaxType.OPERAND && "0".equals(left.getValue())) {
+        if (type == SyntaxType.OPERATION_MINUS && isInverse()) {
           // unary minus
-          String rightStr = right.getExpression(3);
-          s = "-" + rightStr;
-          myPrec = 3;
-        } else if (type == SyntaxType.OPERATION_DIVIDE && left != null && left.getType() == SyntaxType.OPERAND && "1".equals(left.getValue())) {
+          T rightStr = right.render(rendering, 3);
+          s = rendering.concat(rendering.text("-"), rightStr);
+        } else if (type == SyntaxType.OPERATION_DIVIDE && isInverse()) {
           // reciprocal
-          String rightStr = right.getExpression(3);
-          s = "1/" + rightStr;
-          myPrec = 3;
+          T rightStr = right.render(rendering, 3);
+          s = rendering.concat(rendering.text("1/"), rightStr);
         } else if (type == SyntaxType.OPERATION_ADD &&
                    right != null && right.getType() == SyntaxType.OPERATION_MINUS &&
                    right.getLeft() != null && right.getLeft().getType() == SyntaxType.OPERAND &&
@@ -70,10 +181,9 @@ public class Function {
           // left + (-subright) => left - subright
           int leftPrec = 1;
           int rightPrec = 2;
-          String leftStr = left.getExpression(leftPrec);
-          String rightStr = right.getRight().getExpression(rightPrec);
-          s = leftStr + "-" + rightStr;
-          myPrec = 1;
+          T leftStr = left.render(rendering, leftPrec);
+          T rightStr = right.getRight().render(rendering, rightPrec);
+          s = rendering.concat(leftStr, rendering.text("-"), rightStr);
         } else if (type == SyntaxType.OPERATION_MULTIPLY &&
                    right != null && right.getType() == SyntaxType.OPERATION_DIVIDE &&
                    right.getLeft() != null && right.getLeft().getType() == SyntaxType.OPERAND &&
@@ -81,10 +191,9 @@ public class Function {
           // left * (1/subright) => left / subright
           int leftPrec = 2;
           int rightPrec = 3;
-          String leftStr = left.getExpression(leftPrec);
-          String rightStr = right.getRight().getExpression(rightPrec);
-          s = leftStr + "/" + rightStr;
-          myPrec = 2;
+          T leftStr = left.render(rendering, leftPrec);
+          T rightStr = right.getRight().render(rendering, rightPrec);
+          s = rendering.concat(leftStr, rendering.text("/"), rightStr);
         } else {
           String opStr = switch (type) {
             case OPERATION_ADD -> "+";
@@ -95,20 +204,15 @@ public class Function {
           };
           int leftPrec = getPrecedence();
           int rightPrec = isCommutAssoc ? getPrecedence() : getPrecedence() + 1;
-          String leftStr = left.getExpression(leftPrec);
-          String rightStr = right.getExpression(rightPrec);
-          s = leftStr + opStr + rightStr;
-          myPrec = getPrecedence();
+          T leftStr = left.render(rendering, leftPrec);
+          T rightStr = right.render(rendering, rightPrec);
+          s = rendering.concat(leftStr, rendering.text(opStr), rightStr);
         }
       }
       default -> {
-        s = "ERROR";
-        myPrec = 0;
+        s = rendering.text("ERROR");
       }
     }
-    if (myPrec < parentPrec) {
-      s = "(" + s + ")";
-    }
     return s;
   }
 
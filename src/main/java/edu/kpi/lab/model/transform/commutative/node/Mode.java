@@ -1,7 +1,50 @@
 package edu.kpi.lab.model.transform.commutative.node;
 
+import edu.kpi.lab.model.syntax.SyntaxType;
+import java.util.List;
+
+/**
+ * Shape of the tree built over the operands of a {@code +} or {@code *} chain: {@code ((a+b)+c)+d} for {@link #LEFT},
+ * {@code a+(b+(c+d))} for {@link #RIGHT} and {@code (a+b)+(c+d)} for {@link #BALANCED}.
+ */
 public enum Mode {
   LEFT,
   RIGHT,
-  BALANCED
+  BALANCED;
+
+  /**
+   * Joins {@code operands} in their given order; returns {@code null} for an empty list.
+   */
+  public Function build(List<Function> operands, SyntaxType type) {
+    if (operands.isEmpty()) {
+      return null;
+    }
+    return switch (this) {
+      case LEFT -> {
+        Function result = operands.getFirst();
+        for (int i = 1; i < operands.size(); i++) {
+          result = Function.operation(type, result, operands.get(i));
+        }
+        yield result;
+      }
+      case RIGHT -> {
+        Function result = operands.getLast();
+        for (int i = operands.size() - 2; i >= 0; i--) {
+          result = Function.operation(type, operands.get(i), result);
+        }
+        yield result;
+      }
+      case BALANCED -> buildBalanced(operands, type);
+    };
+  }
+
+  private static Function buildBalanced(List<Function> operands, SyntaxType type) {
+    if (operands.size() == 1) {
+      return operands.getFirst();
+    }
+    int mid = operands.size() / 2;
+    Function left = buildBalanced(operands.subList(0, mid), type);
+    Function right = buildBalanced(operands.subList(mid, operands.size()), type);
+    return Function.operation(type, left, right);
+  }
 }
@@ -0,0 +1,117 @@
+package edu.kpi.lab.model.lexical;
+
+import java.util.List;
+import java.util.Random;
+import junit.framework.TestCase;
+
+/**
+ * Tokens of {@link LexicalAnalyzer}, in strict mode and skipping whitespace.
+ */
+public class LexicalAnalyzerTest extends TestCase {
+  private static final String OPERATORS_AND_BRACKETS = "+-*/()";
+
+  private final LexicalAnalyzer strict = new LexicalAnalyzer();
+
+  private final LexicalAnalyzer skippingWhitespace = new LexicalAnalyzer(true);
+
+  public void testFunctionsConstantsAndNumbers() {
+    assertTokens("sin(x)+2.5*y_1", "[FUNCTION('sin') [0; 2], FUNCTION_OPEN_BRACKET('(') [3; 3], " +
+      "CONSTANT('x') [4; 4], FUNCTION_CLOSE_BRACKET(')') [5; 5], OPERATION_ADD('+') [6; 6], DECIMAL('2.5') [7; 9], " +
+      "OPERATION_MULTIPLY('*') [10; 10], CONSTANT('y') [11; 11], ERROR('_') [12; 12], INTEGER('1') [13; 13]]");
+    assertTokens("f(g(x))-(y)", "[FUNCTION('f') [0; 0], FUNCTION_OPEN_BRACKET('(') [1; 1], FUNCTION('g') [2; 2], " +
+      "FUNCTION_OPEN_BRACKET('(') [3; 3], CONSTANT('x') [4; 4], FUNCTION_CLOSE_BRACKET(')') [5; 5], " +
+      "FUNCTION_CLOSE_BRACKET(')') [6; 6], OPERATION_MINUS('-') [7; 7], OPEN_BRACKET('(') [8; 8], " +
+      "CONSTANT('y') [9; 9], CLOSE_BRACKET(')') [10; 10]]");
+    assertTokens("(sin(a)+b))", "[OPEN_BRACKET('(') [0; 0], FUNCTION('sin') [1; 3], " +
+      "FUNCTION_OPEN_BRACKET('(') [4; 4], CONSTANT('a') [5; 5], FUNCTION_CLOSE_BRACKET(')') [6; 6], " +
+      "OPERATION_ADD('+') [7; 7], CONSTANT('b') [8; 8], CLOSE_BRACKET(')') [9; 9], CLOSE_BRACKET(')') [10; 10]]");
+  }
+
+  public void testMisplacedCharacters() {
+    assertTokens("a1.b(c)", "[CONSTANT('a1') [0; 1], ERROR('.') [2; 2], FUNCTION('b') [3; 3], " +
+      "FUNCTION_OPEN_BRACKET('(') [4; 4], CONSTANT('c') [5; 5], FUNCTION_CLOSE_BRACKET(')') [6; 6]]");
+    assertTokens("3.14.15", "[DECIMAL('3.14.15') [0; 6]]");
+    assertTokens("1a", "[INTEGER('1') [0; 0], ERROR('a') [1; 1]]");
+    assertTokens(".5", "[ERROR('.') [0; 0], INTEGER('5') [1; 1]]");
+    assertTokens("a)(b", "[CONSTANT('a') [0; 0], CLOSE_BRACKET(')') [1; 1], OPEN_BRACKET('(') [2; 2], " +
+      "CONSTANT('b') [3; 3]]");
+    assertTokens("x \u00e9\u0663", "[CONSTANT('x') [0; 0], ERROR(' ') [1; 1], CONSTANT('\u00e9\u0663') [2; 3]]");
+  }
+
+  public void testStrictTokensCoverEveryCharacterOnce() {
+    Random random = new Random(42);
+    for (int i = 0; i < 20000; i++) {
+      String sentence = randomSentence(random, "ab1209.()+-*/ x_sinq\t\u00e9\u0663\u00a0", 1 + random.nextInt(20));
+      if (sentence.isBlank()) {
+        continue;
+      }
+      List<Token> tokens = strict.processMathSentence(sentence);
+      int next = 0;
+      for (Token token : tokens) {
+        assertEquals(sentence, next, token.getStartPosition().intValue());
+        assertEquals(sentence, sentence.substring(next, token.getEndPosition() + 1), token.getValue());
+        next = token.getEndPosition() + 1;
+      }
+      assertEquals(sentence, sentence.length(), next);
+      assertEquals(sentence, tokens, strict.tokenize(sentence).toTokens());
+    }
+  }
+
+  public void testSkippedWhitespaceAroundOperatorsChangesOnlyPositions() {
+    Random random = new Random(5);
+    for (int i = 0; i < 20000; i++) {
+      String compact = randomSentence(random, "ab1209.()+-*/x_", 1 + random.nextInt(20));
+      StringBuilder spaced = new StringBuilder();
+      for (int c = 0; c < compact.length(); c++) {
+        boolean operator = OPERATORS_AND_BRACKETS.indexOf(compact.charAt(c)) >= 0;
+        if (operator && random.nextBoolean()) {
+          spaced.append(random.nextBoolean() ? " " : "\t ");
+        }
+        spaced.append(compact.charAt(c));
+        if (operator && random.nextBoolean()) {
+          spaced.append(' ');
+        }
+      }
+      assertSameTypesAndValues(compact, strict.tokenize(compact), skippingWhitespace.tokenize(spaced));
+    }
+  }
+
+  public void testSpaceBetweenNameAndBracketStillMakesAFunction() {
+    TokenBuffer tokens = skippingWhitespace.tokenize("sin  (x) + y");
+    assertEquals(TokenType.FUNCTION, tokens.getTokenType(0));
+    assertEquals(TokenType.FUNCTION_OPEN_BRACKET, tokens.getTokenType(1));
+    assertEquals(TokenType.FUNCTION_CLOSE_BRACKET, tokens.getTokenType(3));
+    assertEquals(5, tokens.getStartPosition(1));
+  }
+
+  public void testBlankSentenceIsRejected() {
+    try {
+      strict.tokenize(" \t");
+      fail("A blank sentence must be rejected");
+    } catch (IllegalArgumentException expected) {
+      // expected
+    }
+  }
+
+  private void assertTokens(String sentence, String expected) {
+    List<Token> tokens = strict.processMathSentence(sentence);
+    assertEquals(expected, tokens.toString());
+    assertEquals(expected, strict.tokenize(sentence).toString());
+  }
+
+  private static void assertSameTypesAndValues(String message, TokenBuffer expected, TokenBuffer actual) {
+    assertEquals(message, expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(message, expected.getTokenType(i), actual.getTokenType(i));
+      assertEquals(message, expected.getValueString(i), actual.getValueString(i));
+    }
+  }
+
+  private static String randomSentence(Random random, String alphabet, int length) {
+    StringBuilder sb = new StringBuilder(length);
+    for (int i = 0; i < length; i++) {
+      sb.append(alphabet.charAt(random.nextInt(alphabet.length())));
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,68 @@
+package edu.kpi.lab.model.lexical;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import junit.framework.TestCase;
+
+/**
+ * Parallel lexing and bracket matching against their sequential versions, on input long enough to be cut into chunks.
+ */
+public class ParallelLexingTest extends TestCase {
+  private static final int LENGTH = 300_000;
+
+  private final LexicalAnalyzer lexer = new LexicalAnalyzer();
+
+  private ForkJoinPool pool;
+
+  @Override
+  protected void setUp() {
+    pool = new ForkJoinPool(4);
+  }
+
+  @Override
+  protected void tearDown() {
+    pool.shutdown();
+  }
+
+  public void testParallelTokenizeMatchesSequential() {
+    Random random = new Random(11);
+    for (int i = 0; i < 5; i++) {
+      String sentence = RandomExpressions.generate(random, LENGTH);
+      assertEquals(lexer.tokenize(sentence).toTokens(), lexer.tokenize(sentence, pool).toTokens());
+    }
+  }
+
+  public void testParallelTokenizeMatchesSequentialOnDamagedInput() {
+    Random random = new Random(12);
+    for (int i = 0; i < 5; i++) {
+      String sentence = RandomExpressions.damage(random, RandomExpressions.generate(random, LENGTH), 50);
+      assertEquals(lexer.tokenize(sentence).toTokens(), lexer.tokenize(sentence, pool).toTokens());
+    }
+  }
+
+  public void testParallelBracketsMatchSequential() {
+    Random random = new Random(13);
+    for (int i = 0; i < 5; i++) {
+      TokenBuffer tokens = lexer.tokenize(RandomExpressions.damage(random, RandomExpressions.generate(random, LENGTH), 20));
+      assertSamePairs(BracketPairs.match(tokens), BracketPairs.match(tokens, pool));
+    }
+  }
+
+  public void testUnbalancedBracketsMatchSequential() {
+    Random random = new Random(14);
+    for (int i = 0; i < 2000; i++) {
+      StringBuilder sb = new StringBuilder();
+      for (int c = 1 + random.nextInt(40); c > 0; c--) {
+        sb.append("()x(".charAt(random.nextInt(4)));
+      }
+      TokenBuffer tokens = lexer.tokenize(sb);
+      assertSamePairs(BracketPairs.match(tokens), BracketPairs.match(tokens, pool));
+    }
+  }
+
+  private static void assertSamePairs(BracketPairs expected, BracketPairs actual) {
+    assertTrue(Arrays.equals(expected.getPartners(), actual.getPartners()));
+    assertEquals(expected.getUnclosed(), actual.getUnclosed());
+  }
+}
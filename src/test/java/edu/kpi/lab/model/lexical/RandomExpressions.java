@@ -0,0 +1,59 @@
+package edu.kpi.lab.model.lexical;
+
+import java.util.Random;
+
+/**
+ * Long random expressions for comparing the parallel and streaming paths with the sequential ones.
+ */
+public final class RandomExpressions {
+  private RandomExpressions() {
+  }
+
+  /**
+   * Replaces {@code count} random characters with operators, brackets, dots, spaces and zeros.
+   */
+  public static String damage(Random random, String sentence, int count) {
+    char[] chars = sentence.toCharArray();
+    for (int i = 0; i < count; i++) {
+      chars[random.nextInt(chars.length)] = "+-*/().x 0".charAt(random.nextInt(10));
+    }
+    return new String(chars);
+  }
+
+  /**
+   * A valid expression of at least {@code length} characters with nested brackets and function calls.
+   */
+  public static String generate(Random random, int length) {
+    StringBuilder sb = new StringBuilder();
+    while (sb.length() < length) {
+      if (!sb.isEmpty()) {
+        sb.append('+');
+      }
+      appendExpression(random, sb, 0);
+    }
+    return sb.toString();
+  }
+
+  private static void appendExpression(Random random, StringBuilder sb, int depth) {
+    int terms = 1 + random.nextInt(depth > 6 ? 2 : 5);
+    for (int i = 0; i < terms; i++) {
+      if (i > 0) {
+        sb.append("+-*/".charAt(random.nextInt(4)));
+      }
+      switch (random.nextInt(depth > 8 ? 2 : 4)) {
+        case 0 -> sb.append('x').append(random.nextInt(100));
+        case 1 -> sb.append(1 + random.nextInt(9)).append(".5");
+        case 2 -> {
+          sb.append("sin(");
+          appendExpression(random, sb, depth + 1);
+          sb.append(')');
+        }
+        default -> {
+          sb.append('(');
+          appendExpression(random, sb, depth + 1);
+          sb.append(')');
+        }
+      }
+    }
+  }
+}
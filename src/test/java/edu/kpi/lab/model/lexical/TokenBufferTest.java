@@ -0,0 +1,64 @@
+package edu.kpi.lab.model.lexical;
+
+import edu.kpi.lab.model.syntax.SyntaxValidator;
+import edu.kpi.lab.model.transform.associative.AssociativeTransformer;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import junit.framework.TestCase;
+
+/**
+ * {@link TokenBuffer#of(List)} over hand-built tokens whose positions say nothing about their values.
+ */
+public class TokenBufferTest extends TestCase {
+  public void testOverlappingTokensKeepTheirValues() {
+    List<Token> tokens = List.of(
+      new Token(0, 0, TokenType.CONSTANT, "a"),
+      new Token(0, 0, TokenType.OPERATION_ADD, "+"),
+      new Token(0, 0, TokenType.CONSTANT, "b"));
+    TokenBuffer buffer = TokenBuffer.of(tokens);
+    assertEquals("a", buffer.getValueString(0));
+    assertEquals("+", buffer.getValue(1).toString());
+    assertTrue(buffer.valueEquals(2, "b"));
+    assertEquals(tokens, buffer.toTokens());
+  }
+
+  public void testValuesOfAnotherLengthThanTheirPositions() {
+    List<Token> tokens = List.of(
+      new Token(5, 5, TokenType.FUNCTION, "sin"),
+      new Token(2, 2, TokenType.FUNCTION_OPEN_BRACKET, "("),
+      new Token(0, 9, TokenType.INTEGER, "42"),
+      new Token(null, null, TokenType.FUNCTION_CLOSE_BRACKET, ")"));
+    TokenBuffer buffer = TokenBuffer.of(tokens);
+    assertEquals("sin", buffer.getValueString(0));
+    assertEquals(2, buffer.getValue(2).length());
+    assertEquals(5, buffer.getStartPosition(0));
+    assertEquals(9, buffer.getEndPosition(2));
+    assertEquals(-1, buffer.getStartPosition(3));
+    assertEquals(")", buffer.getValueString(3));
+  }
+
+  public void testListBufferMatchesLexedBuffer() {
+    String sentence = "sin(x1)+2.5*(y-3)";
+    List<Token> tokens = new LexicalAnalyzer().processMathSentence(sentence);
+    TokenBuffer buffer = TokenBuffer.of(tokens);
+    assertEquals(new LexicalAnalyzer().tokenize(sentence).toString(), buffer.toString());
+  }
+
+  public void testListEntryPointsReadOverlappingTokens() {
+    List<Token> tokens = List.of(
+      new Token(0, 0, TokenType.CONSTANT, "a"),
+      new Token(0, 0, TokenType.OPERATION_MULTIPLY, "*"),
+      new Token(0, 0, TokenType.CONSTANT, "b"));
+    PrintStream out = System.out;
+    System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+    try {
+      assertTrue(new SyntaxValidator().validateTokenQuery(new ArrayList<>(tokens)));
+    } finally {
+      System.setOut(out);
+    }
+    assertEquals(Set.of("a*b"), new AssociativeTransformer().generateEquivalentExpressions(tokens));
+  }
+}
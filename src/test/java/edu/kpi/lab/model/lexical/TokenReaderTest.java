@@ -0,0 +1,82 @@
+package edu.kpi.lab.model.lexical;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import junit.framework.TestCase;
+
+/**
+ * {@link TokenReader} against {@link LexicalAnalyzer#tokenize(CharSequence)}, with buffers small enough for tokens to
+ * straddle refills.
+ */
+public class TokenReaderTest extends TestCase {
+  private static final String ALPHABET = "ab1209.()+-*/ x_sinq\t\u00e9\u00a0";
+
+  public void testReaderMatchesTokenize() throws IOException {
+    assertReaderMatchesTokenize(false);
+  }
+
+  public void testReaderMatchesTokenizeSkippingWhitespace() throws IOException {
+    assertReaderMatchesTokenize(true);
+  }
+
+  public void testReaderMatchesTokenizeOnLongInput() throws IOException {
+    String sentence = RandomExpressions.damage(new Random(31), RandomExpressions.generate(new Random(31), 200_000), 40);
+    for (boolean skipWhitespace : new boolean[] {false, true}) {
+      List<Token> expected = new LexicalAnalyzer(skipWhitespace).tokenize(sentence).toTokens();
+      assertEquals(expected, read(new TokenReader(new StringReader(sentence), skipWhitespace)));
+      assertEquals(expected, read(new TokenReader(new StringReader(sentence), skipWhitespace, 7)));
+    }
+  }
+
+  public void testChannelInput() throws IOException {
+    String sentence = "sin (x\u00e9) + 2.5 * y";
+    TokenReader reader = new TokenReader(
+      Channels.newChannel(new ByteArrayInputStream(sentence.getBytes(StandardCharsets.UTF_8))), StandardCharsets.UTF_8,
+      true);
+    assertEquals(new LexicalAnalyzer(true).tokenize(sentence).toTokens(), read(reader));
+  }
+
+  public void testEmptyInputIsRejected() throws IOException {
+    try (TokenReader reader = new TokenReader(new StringReader("  "), true)) {
+      reader.next();
+      fail("Input without tokens must be rejected");
+    } catch (IllegalArgumentException expected) {
+      // expected
+    }
+  }
+
+  private static void assertReaderMatchesTokenize(boolean skipWhitespace) throws IOException {
+    LexicalAnalyzer lexer = new LexicalAnalyzer(skipWhitespace);
+    Random random = new Random(skipWhitespace ? 2 : 1);
+    for (int i = 0; i < 20000; i++) {
+      StringBuilder sb = new StringBuilder();
+      for (int c = 1 + random.nextInt(20); c > 0; c--) {
+        sb.append(ALPHABET.charAt(random.nextInt(ALPHABET.length())));
+      }
+      String sentence = sb.toString();
+      if (sentence.isBlank()) {
+        continue;
+      }
+      List<Token> expected = lexer.tokenize(sentence).toTokens();
+      int bufferSize = 1 + random.nextInt(4);
+      assertEquals(sentence, expected, read(new TokenReader(new StringReader(sentence), skipWhitespace, bufferSize)));
+    }
+  }
+
+  private static List<Token> read(TokenReader reader) throws IOException {
+    List<Token> tokens = new ArrayList<>();
+    try (reader) {
+      while (reader.next()) {
+        tokens.add(reader.getToken());
+      }
+    }
+    assertNull(reader.getTokenType());
+    return tokens;
+  }
+}
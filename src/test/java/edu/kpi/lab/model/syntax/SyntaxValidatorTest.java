@@ -0,0 +1,141 @@
+package edu.kpi.lab.model.syntax;
+
+import edu.kpi.lab.model.lexical.LexicalAnalyzer;
+import edu.kpi.lab.model.lexical.RandomExpressions;
+import edu.kpi.lab.model.lexical.TokenBuffer;
+import edu.kpi.lab.model.lexical.TokenReader;
+import edu.kpi.lab.model.lexical.TokenType;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BooleanSupplier;
+import junit.framework.TestCase;
+
+/**
+ * The parallel and streaming ways of running {@link SyntaxValidator} against the sequential
+ * {@link SyntaxValidator#validateTokenQuery(TokenBuffer)}: the same verdict and the same printed errors.
+ */
+public class SyntaxValidatorTest extends TestCase {
+  private static final int LENGTH = 300_000;
+
+  private final LexicalAnalyzer lexer = new LexicalAnalyzer();
+
+  private ForkJoinPool pool;
+
+  @Override
+  protected void setUp() {
+    pool = new ForkJoinPool(4);
+  }
+
+  @Override
+  protected void tearDown() {
+    pool.shutdown();
+  }
+
+  public void testParallelValidationMatchesSequentialOnValidInput() {
+    Random random = new Random(21);
+    for (int i = 0; i < 3; i++) {
+      String sentence = RandomExpressions.generate(random, LENGTH);
+      assertEquals("Query has no errors", assertParallelMatchesSequential(sentence).trim());
+    }
+  }
+
+  public void testParallelValidationMatchesSequentialOnDamagedInput() {
+    Random random = new Random(22);
+    for (int i = 0; i < 10; i++) {
+      String sentence = RandomExpressions.damage(random, RandomExpressions.generate(random, LENGTH), 30);
+      assertFalse(assertParallelMatchesSequential(sentence).contains("Query has no errors"));
+    }
+  }
+
+  public void testParallelValidationMatchesSequentialOnMismatchedBrackets() {
+    Random random = new Random(23);
+    for (int i = 0; i < 5; i++) {
+      String sentence = RandomExpressions.generate(random, LENGTH);
+      TokenBuffer sequential = lexer.tokenize(sentence);
+      TokenBuffer parallel = lexer.tokenize(sentence, pool);
+      int close = -1;
+      for (int k = random.nextInt(sequential.size() / 2); close < 0; k++) {
+        if (sequential.getTokenType(k) == TokenType.CLOSE_BRACKET ||
+            sequential.getTokenType(k) == TokenType.FUNCTION_CLOSE_BRACKET) {
+          close = k;
+        }
+      }
+      // a function bracket closing a regular one, or the other way round
+      TokenType swapped = sequential.getTokenType(close) == TokenType.CLOSE_BRACKET
+        ? TokenType.FUNCTION_CLOSE_BRACKET : TokenType.CLOSE_BRACKET;
+      sequential.setTokenType(close, swapped);
+      parallel.setTokenType(close, swapped);
+
+      Outcome expected = run(() -> new SyntaxValidator().validateTokenQuery(sequential));
+      Outcome actual = run(() -> new SyntaxValidator().validateTokenQuery(parallel, pool));
+      assertTrue(expected.result, expected.result.endsWith("bracket must be closed"));
+      assertEquals(expected.result, actual.result);
+    }
+  }
+
+  public void testStreamingValidationMatchesSequential() throws IOException {
+    Random random = new Random(24);
+    for (int i = 0; i < 10; i++) {
+      String sentence = RandomExpressions.damage(random, RandomExpressions.generate(random, 20_000), i);
+      Outcome expected = run(() -> new SyntaxValidator().validateTokenQuery(lexer.tokenize(sentence)));
+      Outcome actual;
+      try (TokenReader reader = new TokenReader(new StringReader(sentence), false, 64)) {
+        actual = run(() -> {
+          try {
+            return new SyntaxValidator().validateTokenQuery(reader);
+          } catch (IOException e) {
+            throw new UncheckedIOException(e);
+          }
+        });
+      }
+      assertEquals(expected.result, actual.result);
+      assertEquals(expected.output, actual.output);
+    }
+  }
+
+  /**
+   * @return what the sequential validation printed
+   */
+  private String assertParallelMatchesSequential(String sentence) {
+    TokenBuffer sequential = lexer.tokenize(sentence);
+    TokenBuffer parallel = lexer.tokenize(sentence, pool);
+    Outcome expected = run(() -> new SyntaxValidator().validateTokenQuery(sequential));
+    Outcome actual = run(() -> new SyntaxValidator().validateTokenQuery(parallel, pool));
+    assertEquals(expected.result, actual.result);
+    assertEquals(expected.output, actual.output);
+    assertEquals(sequential.toTokens(), parallel.toTokens());
+    return expected.output;
+  }
+
+  static Outcome run(BooleanSupplier validation) {
+    PrintStream out = System.out;
+    ByteArrayOutputStream printed = new ByteArrayOutputStream();
+    System.setOut(new PrintStream(printed, true, StandardCharsets.UTF_8));
+    String result;
+    try {
+      result = String.valueOf(validation.getAsBoolean());
+    } catch (IllegalArgumentException e) {
+      result = e.getMessage();
+    } finally {
+      System.setOut(out);
+    }
+    return new Outcome(result, printed.toString(StandardCharsets.UTF_8));
+  }
+
+  static final class Outcome {
+    private final String result;
+
+    private final String output;
+
+    private Outcome(String result, String output) {
+      this.result = result;
+      this.output = output;
+    }
+  }
+}
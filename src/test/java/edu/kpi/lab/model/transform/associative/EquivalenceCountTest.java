@@ -0,0 +1,109 @@
+package edu.kpi.lab.model.transform.associative;
+
+import edu.kpi.lab.model.budget.BudgetedResult;
+import edu.kpi.lab.model.budget.EnumerationBudget;
+import edu.kpi.lab.model.lexical.LexicalAnalyzer;
+import edu.kpi.lab.model.lexical.Token;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.StreamSupport;
+import junit.framework.TestCase;
+
+/**
+ * {@link AssociativeTransformer#countEquivalentExpressions} against the enumeration it counts.
+ */
+public class EquivalenceCountTest extends TestCase {
+  private static final String[] LEAVES = {"a", "b", "c", "x", "1", "2"};
+
+  private static final String[] FIXED = {
+    "x", "a+b", "a*b+a*c", "a*b-2*a+b*c-c*2", "a/(b-1)-c/(b-1)+2/(b-1)-t", "a+b+c+d+e+f+g", "a*b*c*d-e-f-g/h/i",
+    "-a-b-c-d-e", "sin(a*b+a*c)+cos(a)*b"
+  };
+
+  private final LexicalAnalyzer lexer = new LexicalAnalyzer();
+
+  public void testCountMatchesEnumerationOfFixedExpressions() {
+    for (String expression : FIXED) {
+      assertCountMatchesEnumeration(expression);
+    }
+  }
+
+  public void testCountMatchesEnumerationOfRandomExpressions() {
+    Random random = new Random(7);
+    int checked = 0;
+    while (checked < 500) {
+      String expression = randomExpression(random, 4);
+      if (new AssociativeTransformer().countEquivalentExpressions(tokens(expression)).bitLength() <= 14) {
+        assertCountMatchesEnumeration(expression);
+        checked++;
+      }
+    }
+  }
+
+  public void testUnlimitedBudgetCountsTheSame() {
+    AssociativeTransformer transformer = new AssociativeTransformer();
+    for (String expression : FIXED) {
+      BudgetedResult<BigInteger> counted =
+        transformer.countEquivalentExpressions(tokens(expression), EnumerationBudget.unlimited());
+      assertFalse(counted.isTruncated());
+      assertEquals(transformer.countEquivalentExpressions(tokens(expression)), counted.getValue());
+    }
+  }
+
+  public void testCountsLongChainsWithoutEnumerating() {
+    AssociativeTransformer transformer = new AssociativeTransformer();
+    BigInteger shorter = transformer.countEquivalentExpressions(tokens(sum(500)));
+    BigInteger longer = transformer.countEquivalentExpressions(tokens(sum(1000)));
+    assertTrue(shorter.bitLength() > Long.SIZE);
+    assertTrue(longer.compareTo(shorter) > 0);
+  }
+
+  public void testCatalanNumbers() {
+    long[] catalan = {1, 1, 2, 5, 14, 42, 132, 429, 1430, 4862};
+    for (int length = 0; length < catalan.length; length++) {
+      assertEquals(BigInteger.valueOf(catalan[length]), IntervalGroupings.count(length + 1));
+    }
+  }
+
+  private void assertCountMatchesEnumeration(String expression) {
+    List<Token> tokens = tokens(expression);
+    AssociativeTransformer transformer = new AssociativeTransformer();
+    List<String> iterated = new ArrayList<>();
+    transformer.iterateEquivalentExpressions(tokens).forEachRemaining(equivalent -> iterated.add(equivalent.toString()));
+    List<String> ranked = StreamSupport.stream(transformer.spliterateEquivalentExpressions(tokens), false)
+      .map(Object::toString)
+      .toList();
+    List<String> visited = new ArrayList<>();
+    transformer.forEachEquivalentForm(tokens, visited::add);
+
+    assertEquals(expression, BigInteger.valueOf(iterated.size()), transformer.countEquivalentExpressions(tokens));
+    assertEquals(expression, iterated, ranked);
+    assertEquals(expression, iterated, visited);
+  }
+
+  private List<Token> tokens(String expression) {
+    return lexer.processMathSentence(expression);
+  }
+
+  private static String sum(int terms) {
+    StringBuilder sb = new StringBuilder("x0");
+    for (int i = 1; i < terms; i++) {
+      sb.append('+').append('x').append(i);
+    }
+    return sb.toString();
+  }
+
+  private static String randomExpression(Random random, int depth) {
+    if (depth == 0 || random.nextInt(3) == 0) {
+      return LEAVES[random.nextInt(LEAVES.length)];
+    }
+    return switch (random.nextInt(6)) {
+      case 0 -> "(" + randomExpression(random, depth - 1) + ")";
+      case 1 -> "sin(" + randomExpression(random, depth - 1) + ")";
+      default -> randomExpression(random, depth - 1) + "+-*/".charAt(random.nextInt(4)) +
+                 randomExpression(random, depth - 1);
+    };
+  }
+}
@@ -0,0 +1,120 @@
+package edu.kpi.lab.model.transform.associative;
+
+import edu.kpi.lab.model.lexical.LexicalAnalyzer;
+import edu.kpi.lab.model.lexical.Token;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import junit.framework.TestCase;
+
+/**
+ * {@link AssociativeTransformer#pageEquivalentExpressions} against the full enumeration.
+ */
+public class EquivalencePagingTest extends TestCase {
+  private final LexicalAnalyzer lexer = new LexicalAnalyzer();
+
+  public void testPagesCoverTheEnumeration() {
+    for (String expression : new String[] {"x", "a*b+a*c-d/e+f*g", "a+b+c+d+e+f", "a/(b-1)-c/(b-1)+2"}) {
+      for (int pageSize : new int[] {1, 7, 100}) {
+        assertPagesCoverTheEnumeration(expression, pageSize);
+      }
+    }
+  }
+
+  public void testPagesFollowRankOrder() {
+    List<Token> tokens = tokens("a*b+a*c-d/e+f*g");
+    AssociativeTransformer transformer = new AssociativeTransformer();
+    List<String> iterated = new ArrayList<>();
+    transformer.iterateEquivalentExpressions(tokens).forEachRemaining(equivalent -> iterated.add(equivalent.toString()));
+
+    EquivalencePage first = transformer.pageEquivalentExpressions(tokens, null, 5);
+    EquivalencePage second = transformer.pageEquivalentExpressions(tokens, first.getNextCursor(), 5);
+    assertEquals(new ArrayList<>(new LinkedHashSet<>(iterated)).subList(0, 5), first.getForms());
+
+    // a form repeated by the enumeration may come back on the second page; its first occurrences keep rank order
+    Set<String> paged = new LinkedHashSet<>(first.getForms());
+    paged.addAll(second.getForms());
+    assertEquals(new ArrayList<>(new LinkedHashSet<>(iterated)).subList(0, paged.size()), new ArrayList<>(paged));
+  }
+
+  public void testCursorResumesOnAnotherTransformer() {
+    List<Token> tokens = tokens("a*b+a*c-d/e+f*g");
+    AssociativeTransformer transformer = new AssociativeTransformer();
+    String cursor = transformer.pageEquivalentExpressions(tokens, null, 10).getNextCursor();
+    EquivalencePage next = transformer.pageEquivalentExpressions(tokens, cursor, 10);
+    EquivalencePage resumed = new AssociativeTransformer().pageEquivalentExpressions(tokens, cursor, 10);
+    assertEquals(next.getForms(), resumed.getForms());
+    assertEquals(next.getNextCursor(), resumed.getNextCursor());
+  }
+
+  public void testCursorOfAnotherExpressionIsRejected() {
+    AssociativeTransformer transformer = new AssociativeTransformer();
+    String cursor = transformer.pageEquivalentExpressions(tokens("a*b+a*c-d/e+f*g"), null, 3).getNextCursor();
+    assertNotNull(cursor);
+    try {
+      transformer.pageEquivalentExpressions(tokens("a+b+c"), cursor, 3);
+      fail("A cursor of another expression must be rejected");
+    } catch (IllegalArgumentException expected) {
+      // expected
+    }
+  }
+
+  public void testTreesThatRenderAlikeKeepTheirOwnSpaces() {
+    // the parse of -(a+b)+c renders as c-(a+b) but has a single equivalent
+    AssociativeTransformer transformer = new AssociativeTransformer();
+    assertEquals(BigInteger.ONE, transformer.countEquivalentExpressions(tokens("-(a+b)+c")));
+
+    List<Token> tokens = tokens("c-(a+b)");
+    AssociativeTransformer fresh = new AssociativeTransformer();
+    assertEquals(fresh.countEquivalentExpressions(tokens), transformer.countEquivalentExpressions(tokens));
+    assertEquals(fresh.pageEquivalentExpressions(tokens, null, 10).getForms(),
+      transformer.pageEquivalentExpressions(tokens, null, 10).getForms());
+    assertEquals(fresh.streamShard(tokens, 0, 1).count(), transformer.streamShard(tokens, 0, 1).count());
+  }
+
+  public void testCursorOfATreeThatRendersAlikeIsRejected() {
+    AssociativeTransformer transformer = new AssociativeTransformer();
+    String cursor = transformer.pageEquivalentExpressions(tokens("c-(a+b)"), null, 1).getNextCursor();
+    assertNotNull(cursor);
+    try {
+      transformer.pageEquivalentExpressions(tokens("-(a+b)+c"), cursor, 1);
+      fail("A cursor of another tree must be rejected even if both render to the same text");
+    } catch (IllegalArgumentException expected) {
+      // expected
+    }
+  }
+
+  public void testMalformedCursorIsRejected() {
+    try {
+      new AssociativeTransformer().pageEquivalentExpressions(tokens("a+b+c"), "zz", 3);
+      fail("A malformed cursor must be rejected");
+    } catch (IllegalArgumentException expected) {
+      // expected
+    }
+  }
+
+  private void assertPagesCoverTheEnumeration(String expression, int pageSize) {
+    List<Token> tokens = tokens(expression);
+    AssociativeTransformer transformer = new AssociativeTransformer();
+    Set<String> generated = transformer.generateEquivalentExpressions(tokens);
+
+    Set<String> paged = new HashSet<>();
+    String cursor = null;
+    do {
+      EquivalencePage page = transformer.pageEquivalentExpressions(tokens, cursor, pageSize);
+      assertTrue(page.getForms().size() <= pageSize);
+      assertEquals(page.getForms().size(), new HashSet<>(page.getForms()).size());
+      paged.addAll(page.getForms());
+      cursor = page.getNextCursor();
+      assertEquals(cursor != null, page.hasNext());
+    } while (cursor != null);
+    assertEquals(expression + " by " + pageSize, generated, paged);
+  }
+
+  private List<Token> tokens(String expression) {
+    return lexer.processMathSentence(expression);
+  }
+}
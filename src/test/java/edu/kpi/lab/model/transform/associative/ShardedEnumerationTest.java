@@ -0,0 +1,68 @@
+package edu.kpi.lab.model.transform.associative;
+
+import edu.kpi.lab.model.lexical.LexicalAnalyzer;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.stream.Stream;
+import junit.framework.TestCase;
+
+/**
+ * {@link ShardedEnumeration} in worker JVMs against the in-process enumeration.
+ */
+public class ShardedEnumerationTest extends TestCase {
+  private static final String EXPRESSION = "a-b*k+b*t-f*f*5.9+f*q+g*f*5.9-g*q-f/(d+q-w)-g/(d+q-w)";
+
+  private Path workDirectory;
+
+  @Override
+  protected void setUp() throws IOException {
+    workDirectory = Files.createTempDirectory("shards");
+  }
+
+  @Override
+  protected void tearDown() throws IOException {
+    try (Stream<Path> files = Files.walk(workDirectory)) {
+      for (Path file : files.sorted(Comparator.reverseOrder()).toList()) {
+        Files.delete(file);
+      }
+    }
+  }
+
+  public void testShardsMergeIntoTheInProcessEnumeration() throws IOException {
+    List<String> expected = new ArrayList<>(new TreeSet<>(
+      new AssociativeTransformer().generateEquivalentExpressions(new LexicalAnalyzer().processMathSentence(EXPRESSION))));
+
+    Path result = new ShardedEnumeration(workDirectory, 5, 2, 2, 100).enumerate(EXPRESSION);
+    assertEquals(expected, Files.readAllLines(result));
+  }
+
+  public void testRerunOnlyRepeatsMissingShards() throws IOException {
+    Path first = new ShardedEnumeration(workDirectory, 3, 3, 2, 100).enumerate(EXPRESSION);
+    List<String> forms = Files.readAllLines(first);
+    ShardedEnumeration rerun = new ShardedEnumeration(workDirectory, 3, 3, 2, 100);
+    FileTime kept = Files.getLastModifiedTime(rerun.shardFile(0));
+    Files.delete(rerun.shardFile(1));
+
+    Path second = rerun.enumerate(EXPRESSION);
+    assertEquals(first, second);
+    assertEquals(forms, Files.readAllLines(second));
+    assertTrue(Files.exists(rerun.shardFile(1)));
+    assertEquals(kept, Files.getLastModifiedTime(rerun.shardFile(0)));
+  }
+
+  public void testWorkDirectoryOfAnotherJobIsRejected() {
+    new ShardedEnumeration(workDirectory, 2, 2, 1, 100).enumerate("a+b*c");
+    try {
+      new ShardedEnumeration(workDirectory, 2, 2, 1, 100).enumerate("a+b*d");
+      fail("A work directory of another expression must be rejected");
+    } catch (IllegalStateException expected) {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,68 @@
+package edu.kpi.lab.model.transform.associative;
+
+import edu.kpi.lab.model.lexical.LexicalAnalyzer;
+import edu.kpi.lab.model.lexical.Token;
+import edu.kpi.lab.model.transform.associative.node.Expr;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import junit.framework.TestCase;
+
+/**
+ * {@link AssociativeTransformer#topK} against ranking every distinct equivalent by cost.
+ */
+public class TopKSearchTest extends TestCase {
+  private static final String[] EXPRESSIONS = {
+    "x", "a+b*c+d", "a*b+a*c+b*c", "a*b-2*a+b*c-c*2", "a/(b-1)-c/(b-1)+2/(b-1)-t", "a+b+c+d+e+f+g+h",
+    "a*b*c*d-e-f-g/h/i", "-a-b-c-d-e", "a-b*k+b*t-f*f*5.9+f*q+g*f*5.9-g*q-f/(d+q-w)-g/(d+q-w)"
+  };
+
+  private static final CostModel[] COST_MODELS = {
+    CostModel.height(), CostModel.latency(Map.of("+", 1.0, "-", 1.0, "*", 3.0, "/", 8.0))
+  };
+
+  private final LexicalAnalyzer lexer = new LexicalAnalyzer();
+
+  public void testTopKMatchesRankingEveryEquivalent() {
+    for (String expression : EXPRESSIONS) {
+      for (CostModel costModel : COST_MODELS) {
+        for (int k : new int[] {1, 3, 10}) {
+          assertTopKMatchesRanking(expression, costModel, k);
+        }
+      }
+    }
+  }
+
+  public void testNonPositiveKIsRejected() {
+    try {
+      new AssociativeTransformer().topK(lexer.processMathSentence("a+b"), CostModel.height(), 0);
+      fail("k below one must be rejected");
+    } catch (IllegalArgumentException expected) {
+      // expected
+    }
+  }
+
+  private void assertTopKMatchesRanking(String expression, CostModel costModel, int k) {
+    List<Token> tokens = lexer.processMathSentence(expression);
+    AssociativeTransformer transformer = new AssociativeTransformer();
+    Map<String, Double> costs = new LinkedHashMap<>();
+    transformer.iterateEquivalentExpressions(tokens)
+      .forEachRemaining(equivalent -> costs.putIfAbsent(equivalent.toString(), costModel.cost(equivalent)));
+    List<Double> expected = new ArrayList<>(costs.values());
+    expected.sort(Comparator.naturalOrder());
+
+    List<Expr> top = transformer.topK(tokens, costModel, k);
+    String message = expression + " k=" + k;
+    assertEquals(message, Math.min(k, costs.size()), top.size());
+    List<String> forms = new ArrayList<>();
+    for (int i = 0; i < top.size(); i++) {
+      String form = top.get(i).toString();
+      assertTrue(message + ": " + form + " is not an equivalent", costs.containsKey(form));
+      assertFalse(message + ": " + form + " is repeated", forms.contains(form));
+      assertEquals(message, expected.get(i), costModel.cost(top.get(i)));
+      forms.add(form);
+    }
+  }
+}
@@ -0,0 +1,44 @@
+package edu.kpi.lab.model.transform.commutative;
+
+import edu.kpi.lab.model.lexical.LexicalAnalyzer;
+import java.util.Set;
+import junit.framework.TestCase;
+
+/**
+ * Numeric operands of commutative chains folded by {@link CommutativeTransformer}.
+ */
+public class ConstantFoldingTest extends TestCase {
+  private final CommutativeTransformer transformer = new CommutativeTransformer();
+
+  public void testWrittenConstantsFold() {
+    assertForms("2*a*3*b", "6*a*b");
+    assertForms("a+0.1+0.2", "0.3+a");
+    assertForms("a*(-1)*(-1)", "a");
+    assertForms("(1/3)*a*3", "a");
+  }
+
+  public void testComputedConstantsFold() {
+    assertForms("a+(1-2)", "-1+a");
+    assertForms("(1+2)*a", "3*a");
+    assertForms("a*(6/4)", "1.5*a");
+    assertForms("a*(4-2)*3", "6*a");
+    assertForms("a+(2-2)", "a");
+  }
+
+  public void testWrittenFractionStaysAsWritten() {
+    assertForms("(2/3)*a", "2/3*a");
+  }
+
+  public void testSubtractedConstantsAreNotCombined() {
+    assertForms("a-1+2", "a-1+2", "2+a-1");
+  }
+
+  public void testDivisionByZeroIsNotFolded() {
+    assertForms("1/0*a+1-1", "1/0*a+1-1", "1+1/0*a-1");
+  }
+
+  private void assertForms(String expression, String... forms) {
+    assertEquals(expression, Set.of(forms),
+      transformer.generateEquivalentExpressions(new LexicalAnalyzer().processMathSentence(expression)));
+  }
+}